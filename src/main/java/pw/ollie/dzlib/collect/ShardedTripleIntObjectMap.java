@@ -0,0 +1,743 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.collect;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import pw.ollie.dzlib.hashing.Int21TripleHashed;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+import static java.util.Objects.*;
+
+/**
+ * A {@link TripleIntObjectMap} which is partitioned across a number of named shards, each of which is itself a
+ * {@link TripleIntObjectMap}.
+ * <p>
+ * Keys are grouped into cubic regions of {@code 2^regionBits} blocks along each axis, and each region is assigned
+ * to a shard using consistent hashing with a configurable number of virtual nodes per shard. Because routing is
+ * region-granular, neighbouring keys in the same region always live on the same shard, and adding or removing a
+ * shard only moves the regions whose owner changed.
+ * <p>
+ * Shards are created through a pluggable factory, so they can be plain in-process maps such as
+ * {@link TTripleInt21ObjectHashMap} or stubs which forward to a map held by another process. Keys are encoded in
+ * the same way as {@link TTripleInt21ObjectHashMap}, using {@link Int21TripleHashed}, and shards are expected to
+ * use the same encoding for {@link #keys()} and {@link #iterator()}.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of object stored
+ */
+public class ShardedTripleIntObjectMap<T> implements TripleIntObjectMap<T> {
+    /**
+     * The default number of low bits of each coordinate which are ignored when determining a key's region.
+     */
+    public static final int DEFAULT_REGION_BITS = 4;
+    /**
+     * The default number of positions each shard occupies on the hash ring.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final Function<? super String, ? extends TripleIntObjectMap<T>> shardFactory;
+    private final long regionMask;
+    private final int virtualNodes;
+    private final Map<String, TripleIntObjectMap<T>> shards = new LinkedHashMap<>();
+
+    private long[] ringPositions = new long[0];
+    private String[] ringOwners = new String[0];
+
+    /**
+     * Creates a new <code>ShardedTripleIntObjectMap</code> with no shards, which creates in-process
+     * {@link TTripleInt21ObjectHashMap} shards and uses the default region size and number of virtual nodes.
+     */
+    public ShardedTripleIntObjectMap() {
+        this(id -> new TTripleInt21ObjectHashMap<>());
+    }
+
+    /**
+     * Creates a new <code>ShardedTripleIntObjectMap</code> with no shards, which creates shards using
+     * <code>shardFactory</code> and uses the default region size and number of virtual nodes.
+     *
+     * @param shardFactory creates the shard for a given shard id
+     */
+    public ShardedTripleIntObjectMap(Function<? super String, ? extends TripleIntObjectMap<T>> shardFactory) {
+        this(shardFactory, DEFAULT_REGION_BITS, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates a new <code>ShardedTripleIntObjectMap</code> with no shards.
+     *
+     * @param shardFactory creates the shard for a given shard id
+     * @param regionBits   the number of low bits of each coordinate ignored when determining a key's region, between
+     *                     0 and 20 inclusive
+     * @param virtualNodes the number of positions each shard occupies on the hash ring
+     */
+    public ShardedTripleIntObjectMap(Function<? super String, ? extends TripleIntObjectMap<T>> shardFactory, int regionBits, int virtualNodes) {
+        if (regionBits < 0 || regionBits > 20) {
+            throw new IllegalArgumentException("regionBits must be between 0 and 20");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+
+        this.shardFactory = requireNonNull(shardFactory);
+        this.virtualNodes = virtualNodes;
+
+        long lane = 0x1FFFFFL & ~((1L << regionBits) - 1);
+        this.regionMask = lane << 42 | lane << 21 | lane;
+    }
+
+    /**
+     * Creates a new shard with the given id using this map's shard factory and adds it to the map, migrating every
+     * region which the new shard now owns from the shards which previously owned it.
+     *
+     * @param id the id of the new shard
+     * @return the number of entries migrated to the new shard
+     */
+    public int addShard(String id) {
+        return addShard(id, shardFactory.apply(id));
+    }
+
+    /**
+     * Adds <code>shard</code> to the map with the given id, migrating every region which the new shard now owns
+     * from the shards which previously owned it. Any entries already in <code>shard</code> are left where they are
+     * until the next {@link #rebalance()}.
+     *
+     * @param id    the id of the new shard
+     * @param shard the shard
+     * @return the number of entries migrated to the new shard
+     */
+    public int addShard(String id, TripleIntObjectMap<T> shard) {
+        requireNonNull(id);
+        requireNonNull(shard);
+        if (shards.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate shard id: " + id);
+        }
+
+        shards.put(id, shard);
+        rebuildRing();
+
+        int migrated = 0;
+        for (Map.Entry<String, TripleIntObjectMap<T>> entry : shards.entrySet()) {
+            if (!entry.getKey().equals(id)) {
+                migrated += migrateMisplaced(entry.getKey(), entry.getValue());
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Removes the shard with the given id from the map, migrating each of its regions to the shard which now owns
+     * it.
+     *
+     * @param id the id of the shard to remove
+     * @return the removed shard, which will be empty, or <code>null</code> if there was no such shard
+     * @throws IllegalStateException if the shard is the last one and the map is not empty
+     */
+    public TripleIntObjectMap<T> removeShard(String id) {
+        TripleIntObjectMap<T> shard = shards.get(id);
+        if (shard == null) {
+            return null;
+        }
+        if (shards.size() == 1 && !shard.isEmpty()) {
+            throw new IllegalStateException("Cannot remove the last shard of a non-empty map");
+        }
+
+        shards.remove(id);
+        rebuildRing();
+        migrateMisplaced(id, shard);
+        return shard;
+    }
+
+    /**
+     * Moves every entry which is not on the shard owning its region to the owning shard. This is only needed if
+     * shards are modified directly, or were added with existing entries.
+     *
+     * @return the number of entries migrated
+     */
+    public int rebalance() {
+        int migrated = 0;
+        for (Map.Entry<String, TripleIntObjectMap<T>> entry : shards.entrySet()) {
+            migrated += migrateMisplaced(entry.getKey(), entry.getValue());
+        }
+        return migrated;
+    }
+
+    /**
+     * Gets the id of the shard which owns the region containing the given (x, y, z) key.
+     *
+     * @return the id of the owning shard, or <code>null</code> if there are no shards
+     */
+    public String shardFor(int x, int y, int z) {
+        return shards.isEmpty() ? null : ownerOf(Int21TripleHashed.key(x, y, z));
+    }
+
+    /**
+     * Gets the shard with the given id.
+     *
+     * @param id the id of the shard
+     * @return the shard, or <code>null</code> if there is no such shard
+     */
+    public TripleIntObjectMap<T> getShard(String id) {
+        return shards.get(id);
+    }
+
+    /**
+     * Gets an unmodifiable view of the ids of the shards in this map.
+     *
+     * @return the ids of the shards in this map
+     */
+    public Set<String> shardIds() {
+        return Collections.unmodifiableSet(shards.keySet());
+    }
+
+    @Override
+    public T get(int x, int y, int z) {
+        TripleIntObjectMap<T> shard = shardOrNull(x, y, z);
+        return shard == null ? null : shard.get(x, y, z);
+    }
+
+    @Override
+    public boolean containsKey(int x, int y, int z) {
+        TripleIntObjectMap<T> shard = shardOrNull(x, y, z);
+        return shard != null && shard.containsKey(x, y, z);
+    }
+
+    @Override
+    public void clear() {
+        for (TripleIntObjectMap<T> shard : shards.values()) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public boolean containsValue(T val) {
+        for (TripleIntObjectMap<T> shard : shards.values()) {
+            if (shard.containsValue(val)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (TripleIntObjectMap<T> shard : shards.values()) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a {@see TLongObjectIterator} with access to this map's keys and values, iterating over each shard in
+     * turn.
+     *
+     * @return a {@see TLongObjectIterator} with access to this map's keys and values.
+     */
+    @Override
+    public TLongObjectIterator<T> iterator() {
+        return new ShardedIterator();
+    }
+
+    /**
+     * Returns a {@see TLongSet} view of the keys in every shard of this map. The set is backed by the map, and removing
+     * a key from the set removes it from the shard which owns it. It does not support the add or addAll operations.
+     *
+     * @return a set view of the keys contained in this map.
+     */
+    @Override
+    public TLongSet keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public long[] keys() {
+        long[] keys = new long[size()];
+        int i = 0;
+        for (TripleIntObjectMap<T> shard : shards.values()) {
+            long[] shardKeys = shard.keys();
+            System.arraycopy(shardKeys, 0, keys, i, shardKeys.length);
+            i += shardKeys.length;
+        }
+        return i == keys.length ? keys : Arrays.copyOf(keys, i);
+    }
+
+    @Override
+    public T remove(int x, int y, int z) {
+        TripleIntObjectMap<T> shard = shardOrNull(x, y, z);
+        return shard == null ? null : shard.remove(x, y, z);
+    }
+
+    @Override
+    public T put(int x, int y, int z, T value) {
+        return shard(x, y, z).put(x, y, z, value);
+    }
+
+    @Override
+    public T putIfAbsent(int x, int y, int z, T value) {
+        return shard(x, y, z).putIfAbsent(x, y, z, value);
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (TripleIntObjectMap<T> shard : shards.values()) {
+            size += shard.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a {@see Collection} view of the values contained in each shard of this map.
+     */
+    @Override
+    public Collection<T> valueCollection() {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<TripleIntObjectMap<T>> shardIterator = shards.values().iterator();
+                return new Iterator<T>() {
+                    private Iterator<T> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && shardIterator.hasNext()) {
+                            current = shardIterator.next().valueCollection().iterator();
+                        }
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        current.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ShardedTripleIntObjectMap.this.size();
+            }
+        };
+    }
+
+    private TripleIntObjectMap<T> shard(int x, int y, int z) {
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("The map has no shards");
+        }
+        return shards.get(ownerOf(Int21TripleHashed.key(x, y, z)));
+    }
+
+    private TripleIntObjectMap<T> shardOrNull(int x, int y, int z) {
+        return shards.isEmpty() ? null : shards.get(ownerOf(Int21TripleHashed.key(x, y, z)));
+    }
+
+    private String ownerOf(long key) {
+        int index = Arrays.binarySearch(ringPositions, mix(key & regionMask));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return ringOwners[index == ringOwners.length ? 0 : index];
+    }
+
+    private int migrateMisplaced(String id, TripleIntObjectMap<T> shard) {
+        // group the keys by region, so that each region's owner is looked up once and the region moves as a whole
+        TLongObjectMap<TLongList> regions = new TLongObjectHashMap<>();
+        for (long key : shard.keys()) {
+            long region = key & regionMask;
+            TLongList keys = regions.get(region);
+            if (keys == null) {
+                keys = new TLongArrayList();
+                regions.put(region, keys);
+            }
+            keys.add(key);
+        }
+
+        int migrated = 0;
+        for (TLongObjectIterator<TLongList> it = regions.iterator(); it.hasNext(); ) {
+            it.advance();
+            String owner = ownerOf(it.key());
+            if (!owner.equals(id)) {
+                TripleIntObjectMap<T> target = shards.get(owner);
+                TLongList keys = it.value();
+                for (int i = 0; i < keys.size(); i++) {
+                    long key = keys.get(i);
+                    int x = Int21TripleHashed.key1(key), y = Int21TripleHashed.key2(key), z = Int21TripleHashed.key3(key);
+                    target.put(x, y, z, shard.remove(x, y, z));
+                }
+                migrated += keys.size();
+            }
+        }
+        return migrated;
+    }
+
+    private void rebuildRing() {
+        int size = shards.size() * virtualNodes;
+        long[] positions = new long[size];
+        String[] owners = new String[size];
+
+        VirtualNode[] nodes = new VirtualNode[size];
+        int i = 0;
+        for (String id : shards.keySet()) {
+            long idHash = hash(id);
+            for (int node = 0; node < virtualNodes; node++) {
+                nodes[i++] = new VirtualNode(mix(idHash + node * 0x9E3779B97F4A7C15L), id);
+            }
+        }
+        Arrays.sort(nodes);
+        for (i = 0; i < size; i++) {
+            positions[i] = nodes[i].position;
+            owners[i] = nodes[i].owner;
+        }
+
+        this.ringPositions = positions;
+        this.ringOwners = owners;
+    }
+
+    private static long hash(String id) {
+        // 64 bit FNV-1a
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        // the MurmurHash3 64 bit finalizer
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static final class VirtualNode implements Comparable<VirtualNode> {
+        private final long position;
+        private final String owner;
+
+        VirtualNode(long position, String owner) {
+            this.position = position;
+            this.owner = owner;
+        }
+
+        @Override
+        public int compareTo(VirtualNode other) {
+            // the owner id is a tiebreaker so that the ring does not depend on insertion order
+            int result = Long.compare(position, other.position);
+            return result != 0 ? result : owner.compareTo(other.owner);
+        }
+    }
+
+    private final class KeySet implements TLongSet {
+        @Override
+        public long getNoEntryValue() {
+            return 0;
+        }
+
+        @Override
+        public int size() {
+            return ShardedTripleIntObjectMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ShardedTripleIntObjectMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(long key) {
+            return containsKey(Int21TripleHashed.key1(key), Int21TripleHashed.key2(key), Int21TripleHashed.key3(key));
+        }
+
+        @Override
+        public TLongIterator iterator() {
+            ShardedIterator entries = new ShardedIterator();
+            return new TLongIterator() {
+                @Override
+                public long next() {
+                    entries.advance();
+                    return entries.key();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public long[] toArray() {
+            return keys();
+        }
+
+        @Override
+        public long[] toArray(long[] dest) {
+            long[] keys = keys();
+            if (dest.length < keys.length) {
+                return keys;
+            }
+            System.arraycopy(keys, 0, dest, 0, keys.length);
+            if (dest.length > keys.length) {
+                dest[keys.length] = getNoEntryValue();
+            }
+            return dest;
+        }
+
+        @Override
+        public boolean add(long entry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(long key) {
+            int x = Int21TripleHashed.key1(key), y = Int21TripleHashed.key2(key), z = Int21TripleHashed.key3(key);
+            TripleIntObjectMap<T> shard = shardOrNull(x, y, z);
+            if (shard == null || !shard.containsKey(x, y, z)) {
+                return false;
+            }
+            shard.remove(x, y, z);
+            return true;
+        }
+
+        @Override
+        public boolean containsAll(Collection<?> collection) {
+            for (Object element : collection) {
+                if (!(element instanceof Long) || !contains((Long) element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean containsAll(TLongCollection collection) {
+            return collection.forEach(this::contains);
+        }
+
+        @Override
+        public boolean containsAll(long[] array) {
+            for (long key : array) {
+                if (!contains(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Long> collection) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(TLongCollection collection) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(long[] array) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> collection) {
+            return removeIf(key -> !collection.contains(key));
+        }
+
+        @Override
+        public boolean retainAll(TLongCollection collection) {
+            return removeIf(key -> !collection.contains(key));
+        }
+
+        @Override
+        public boolean retainAll(long[] array) {
+            return retainAll(new TLongHashSet(array));
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> collection) {
+            boolean changed = false;
+            for (Object element : collection) {
+                changed |= element instanceof Long && remove((Long) element);
+            }
+            return changed;
+        }
+
+        @Override
+        public boolean removeAll(TLongCollection collection) {
+            return removeAll(collection.toArray());
+        }
+
+        @Override
+        public boolean removeAll(long[] array) {
+            boolean changed = false;
+            for (long key : array) {
+                changed |= remove(key);
+            }
+            return changed;
+        }
+
+        @Override
+        public void clear() {
+            ShardedTripleIntObjectMap.this.clear();
+        }
+
+        @Override
+        public boolean forEach(TLongProcedure procedure) {
+            for (TLongIterator it = iterator(); it.hasNext(); ) {
+                if (!procedure.execute(it.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TLongSet)) {
+                return false;
+            }
+            TLongSet that = (TLongSet) other;
+            return that.size() == size() && containsAll(that);
+        }
+
+        @Override
+        public int hashCode() {
+            // the same as the hash code of a TLongHashSet with the same keys
+            int hash = 0;
+            for (TLongIterator it = iterator(); it.hasNext(); ) {
+                long key = it.next();
+                hash += (int) (key ^ (key >>> 32));
+            }
+            return hash;
+        }
+
+        private boolean removeIf(LongPredicate filter) {
+            boolean changed = false;
+            for (TLongIterator it = iterator(); it.hasNext(); ) {
+                if (filter.test(it.next())) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    }
+
+    private final class ShardedIterator implements TLongObjectIterator<T> {
+        private final Iterator<TripleIntObjectMap<T>> shardIterator = shards.values().iterator();
+
+        private TLongObjectIterator<T> current;
+        private TLongObjectIterator<T> next;
+
+        @Override
+        public long key() {
+            return current().key();
+        }
+
+        @Override
+        public T value() {
+            return current().value();
+        }
+
+        @Override
+        public T setValue(T val) {
+            return current().setValue(val);
+        }
+
+        @Override
+        public void advance() {
+            if (current == null || !current.hasNext()) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = null;
+            }
+            current.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (current != null && current.hasNext()) {
+                return true;
+            }
+            // find the next non-empty shard without moving off the current entry
+            while ((next == null || !next.hasNext()) && shardIterator.hasNext()) {
+                next = shardIterator.next().iterator();
+            }
+            return next != null && next.hasNext();
+        }
+
+        @Override
+        public void remove() {
+            current().remove();
+        }
+
+        private TLongObjectIterator<T> current() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            return current;
+        }
+    }
+}
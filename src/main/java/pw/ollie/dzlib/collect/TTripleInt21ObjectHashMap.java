@@ -94,7 +94,8 @@ public class TTripleInt21ObjectHashMap<T> implements TripleIntObjectMap<T> {
 
     @Override
     public T putIfAbsent(int x, int y, int z, T value) {
-        return null;
+        long key = Int21TripleHashed.key(x, y, z);
+        return map.putIfAbsent(key, value);
     }
 
     /**
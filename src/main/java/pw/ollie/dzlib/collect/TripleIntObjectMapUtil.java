@@ -0,0 +1,243 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.collect;
+
+import pw.ollie.dzlib.function.LongObjConsumer;
+import pw.ollie.dzlib.hashing.Int21TripleHashed;
+
+import java.util.function.BiFunction;
+import java.util.stream.LongStream;
+
+import static java.util.Objects.*;
+
+/**
+ * Contains join operations between pairs of {@link TripleIntObjectMap}s.
+ * <p>
+ * Every join is driven by the smaller of the two maps: the keys of the smaller map are iterated, and the larger map
+ * is probed for each of them. The parallel variants split the keys of the smaller map into ranges which are probed
+ * concurrently, so neither map may be modified while a join is running.
+ * <p>
+ * Keys passed to and returned from these methods are encoded using {@link Int21TripleHashed}.
+ */
+public final class TripleIntObjectMapUtil {
+    // the range of coordinates which can be encoded by Int21TripleHashed
+    private static final int MIN_COORDINATE = -(1 << 20);
+    private static final int MAX_COORDINATE = (1 << 20) - 1;
+
+    /**
+     * Joins {@code left} and {@code right}, returning a map which contains, for every key present in both maps, the
+     * result of applying {@code combiner} to the two values for that key.
+     *
+     * @param left     the left map
+     * @param right    the right map
+     * @param combiner combines the left and right values for a key
+     * @param <A>      the type of value in the left map
+     * @param <B>      the type of value in the right map
+     * @param <R>      the type of value in the returned map
+     * @return a new map containing the combined values for keys present in both maps
+     */
+    public static <A, B, R> TTripleInt21ObjectHashMap<R> join(TripleIntObjectMap<A> left, TripleIntObjectMap<B> right, BiFunction<? super A, ? super B, ? extends R> combiner) {
+        return join(left, right, combiner, false);
+    }
+
+    /**
+     * Joins {@code left} and {@code right}, returning a map which contains, for every key present in both maps, the
+     * result of applying {@code combiner} to the two values for that key.
+     * <p>
+     * If {@code parallel} is true, the keys of the smaller map are probed concurrently, in which case
+     * {@code combiner} must be thread-safe.
+     *
+     * @param left     the left map
+     * @param right    the right map
+     * @param combiner combines the left and right values for a key
+     * @param parallel whether to probe in parallel
+     * @param <A>      the type of value in the left map
+     * @param <B>      the type of value in the right map
+     * @param <R>      the type of value in the returned map
+     * @return a new map containing the combined values for keys present in both maps
+     */
+    public static <A, B, R> TTripleInt21ObjectHashMap<R> join(TripleIntObjectMap<A> left, TripleIntObjectMap<B> right, BiFunction<? super A, ? super B, ? extends R> combiner, boolean parallel) {
+        requireNonNull(left);
+        requireNonNull(right);
+        requireNonNull(combiner);
+        if (left.size() <= right.size()) {
+            return keys(left, parallel).collect(TTripleInt21ObjectHashMap::new, (result, key) -> {
+                B value = get(right, key);
+                if (value != null) {
+                    result.map.put(key, combiner.apply(get(left, key), value));
+                }
+            }, TripleIntObjectMapUtil::putAll);
+        } else {
+            return keys(right, parallel).collect(TTripleInt21ObjectHashMap::new, (result, key) -> {
+                A value = get(left, key);
+                if (value != null) {
+                    result.map.put(key, combiner.apply(value, get(right, key)));
+                }
+            }, TripleIntObjectMapUtil::putAll);
+        }
+    }
+
+    /**
+     * Returns a map containing the entries of {@code left} whose keys are also present in {@code right}.
+     *
+     * @param left  the map to take entries from
+     * @param right the map whose keys entries must match
+     * @param <A>   the type of value in the left map
+     * @return a new map containing the entries of {@code left} with a counterpart in {@code right}
+     */
+    public static <A> TTripleInt21ObjectHashMap<A> semiJoin(TripleIntObjectMap<A> left, TripleIntObjectMap<?> right) {
+        return semiJoin(left, right, false);
+    }
+
+    /**
+     * Returns a map containing the entries of {@code left} whose keys are also present in {@code right}.
+     *
+     * @param left     the map to take entries from
+     * @param right    the map whose keys entries must match
+     * @param parallel whether to probe in parallel
+     * @param <A>      the type of value in the left map
+     * @return a new map containing the entries of {@code left} with a counterpart in {@code right}
+     */
+    public static <A> TTripleInt21ObjectHashMap<A> semiJoin(TripleIntObjectMap<A> left, TripleIntObjectMap<?> right, boolean parallel) {
+        return join(left, right, (a, b) -> a, parallel);
+    }
+
+    /**
+     * Passes every pair of entries from {@code left} and {@code right} whose keys are within {@code distance} of
+     * each other along every axis (that is, within a cube of side {@code 2 * distance + 1} centred on each key) to
+     * {@code consumer}.
+     * <p>
+     * For each entry in the smaller map, every key in the surrounding cube is probed in the larger map, so this is
+     * best suited to small distances. Neighbouring keys beyond the range of coordinates encodable by
+     * {@link Int21TripleHashed} are not probed.
+     *
+     * @param left     the left map
+     * @param right    the right map
+     * @param distance the maximum distance along each axis, which must not be negative
+     * @param consumer receives each matching pair of entries
+     * @param <A>      the type of value in the left map
+     * @param <B>      the type of value in the right map
+     */
+    public static <A, B> void joinWithin(TripleIntObjectMap<A> left, TripleIntObjectMap<B> right, int distance, JoinConsumer<? super A, ? super B> consumer) {
+        joinWithin(left, right, distance, consumer, false);
+    }
+
+    /**
+     * Passes every pair of entries from {@code left} and {@code right} whose keys are within {@code distance} of
+     * each other along every axis (that is, within a cube of side {@code 2 * distance + 1} centred on each key) to
+     * {@code consumer}.
+     * <p>
+     * If {@code parallel} is true, the keys of the smaller map are probed concurrently, in which case
+     * {@code consumer} must be thread-safe.
+     *
+     * @param left     the left map
+     * @param right    the right map
+     * @param distance the maximum distance along each axis, which must not be negative
+     * @param consumer receives each matching pair of entries
+     * @param parallel whether to probe in parallel
+     * @param <A>      the type of value in the left map
+     * @param <B>      the type of value in the right map
+     */
+    public static <A, B> void joinWithin(TripleIntObjectMap<A> left, TripleIntObjectMap<B> right, int distance, JoinConsumer<? super A, ? super B> consumer, boolean parallel) {
+        requireNonNull(left);
+        requireNonNull(right);
+        requireNonNull(consumer);
+        if (distance < 0) {
+            throw new IllegalArgumentException("distance must not be negative");
+        }
+        if (left.size() <= right.size()) {
+            keys(left, parallel).forEach(key -> probeWithin(key, right, distance,
+                    (other, value) -> consumer.accept(key, get(left, key), other, value)));
+        } else {
+            keys(right, parallel).forEach(key -> probeWithin(key, left, distance,
+                    (other, value) -> consumer.accept(other, value, key, get(right, key))));
+        }
+    }
+
+    private static <T> void probeWithin(long key, TripleIntObjectMap<T> map, int distance, LongObjConsumer<T> action) {
+        int x = Int21TripleHashed.key1(key), y = Int21TripleHashed.key2(key), z = Int21TripleHashed.key3(key);
+        // neighbours outside the 21-bit range would wrap around to the opposite edge, so they are skipped
+        int minX = lowerBound(x, distance), maxX = upperBound(x, distance);
+        int minY = lowerBound(y, distance), maxY = upperBound(y, distance);
+        int minZ = lowerBound(z, distance), maxZ = upperBound(z, distance);
+        for (int nx = minX; nx <= maxX; nx++) {
+            for (int ny = minY; ny <= maxY; ny++) {
+                for (int nz = minZ; nz <= maxZ; nz++) {
+                    T value = map.get(nx, ny, nz);
+                    if (value != null) {
+                        action.accept(Int21TripleHashed.key(nx, ny, nz), value);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int lowerBound(int coordinate, int distance) {
+        return (int) Math.max((long) coordinate - distance, MIN_COORDINATE);
+    }
+
+    private static int upperBound(int coordinate, int distance) {
+        return (int) Math.min((long) coordinate + distance, MAX_COORDINATE);
+    }
+
+    private static LongStream keys(TripleIntObjectMap<?> map, boolean parallel) {
+        LongStream keys = LongStream.of(map.keys());
+        return parallel ? keys.parallel() : keys;
+    }
+
+    private static <T> T get(TripleIntObjectMap<T> map, long key) {
+        if (map instanceof TTripleInt21ObjectHashMap) {
+            // skip decoding and re-encoding the key
+            return ((TTripleInt21ObjectHashMap<T>) map).map.get(key);
+        }
+        return map.get(Int21TripleHashed.key1(key), Int21TripleHashed.key2(key), Int21TripleHashed.key3(key));
+    }
+
+    private static <T> void putAll(TTripleInt21ObjectHashMap<T> into, TTripleInt21ObjectHashMap<T> from) {
+        into.map.putAll(from.map);
+    }
+
+    /**
+     * Receives a pair of entries matched by a join.
+     *
+     * @param <A> the type of value in the left map
+     * @param <B> the type of value in the right map
+     */
+    @FunctionalInterface
+    public interface JoinConsumer<A, B> {
+        /**
+         * Accepts a matched pair of entries.
+         *
+         * @param leftKey  the key of the entry in the left map
+         * @param left     the value of the entry in the left map
+         * @param rightKey the key of the entry in the right map
+         * @param right    the value of the entry in the right map
+         */
+        void accept(long leftKey, A left, long rightKey, B right);
+    }
+
+    private TripleIntObjectMapUtil() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -23,6 +23,10 @@
  */
 package pw.ollie.dzlib.concurrent;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -50,6 +54,42 @@ public final class ConcurrencyUtil {
         return ThreadLocalRandom.current();
     }
 
+    /**
+     * Gets a shared {@link Executor} suited to running blocking tasks, such as I/O. Each task
+     * runs on its own virtual thread where the runtime supports them, or otherwise on a
+     * cached pool of daemon threads.
+     *
+     * @return the shared executor for blocking tasks
+     */
+    public static Executor blockingExecutor() {
+        return BlockingExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates an {@link ExecutorService} suited to running blocking tasks, such as I/O. Each
+     * task runs on its own virtual thread where the runtime supports them, or otherwise on a
+     * cached pool of daemon threads.
+     *
+     * @return a new executor for blocking tasks
+     */
+    public static ExecutorService newBlockingExecutor() {
+        try {
+            // only available from Java 21, so can't be linked against directly
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "dzlib-blocking");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class BlockingExecutorHolder {
+        static final ExecutorService EXECUTOR = newBlockingExecutor();
+    }
+
     private ConcurrencyUtil() {
         throw new UnsupportedOperationException(":(");
     }
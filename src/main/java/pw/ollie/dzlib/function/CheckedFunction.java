@@ -0,0 +1,40 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.function;
+
+import static java.util.Objects.*;
+
+/**
+ * A function which is able to throw checked exceptions.
+ */
+@FunctionalInterface
+public interface CheckedFunction<T, R, E extends Throwable> {
+    R apply(T input) throws E;
+
+    default <V> CheckedFunction<T, V, E> andThen(CheckedFunction<? super R, ? extends V, E> that) {
+        requireNonNull(that);
+
+        return input -> that.apply(apply(input));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Maps the elements of a spliterator with an asynchronous function, keeping up to
+ * {@code maxInFlight} results pending at once. Elements are read from the underlying
+ * spliterator only as the window of pending results has room for them.
+ * <p>
+ * If ordered, results are emitted in the order of the elements they were mapped from, and
+ * a slow result holds back those behind it. Otherwise results are emitted as they complete.
+ */
+final class AsyncMappingSpliterator<T, R> implements Spliterator<R>, Consumer<T> {
+    private final Spliterator<? extends T> underlying;
+    private final Function<? super T, ? extends CompletionStage<? extends R>> mapper;
+    private final int maxInFlight;
+    private final boolean ordered;
+
+    /**
+     * Pending results, oldest first.
+     */
+    private final Deque<CompletableFuture<? extends R>> inFlight = new ArrayDeque<>();
+    /**
+     * Results which have completed but not been emitted yet, if unordered.
+     */
+    private final BlockingQueue<CompletableFuture<? extends R>> completed = new LinkedBlockingQueue<>();
+    private boolean exhausted;
+
+    AsyncMappingSpliterator(Spliterator<? extends T> underlying, Function<? super T, ? extends CompletionStage<? extends R>> mapper, int maxInFlight, boolean ordered) {
+        this.underlying = underlying;
+        this.mapper = mapper;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+        try {
+            while (!exhausted && inFlight.size() < maxInFlight) {
+                exhausted = !underlying.tryAdvance(this);
+            }
+        } catch (RuntimeException | Error e) {
+            // the mapper or the source failed synchronously, so nothing will consume the window
+            cancel();
+            throw e;
+        }
+        if (inFlight.isEmpty()) {
+            return false;
+        }
+        CompletableFuture<? extends R> next;
+        if (ordered) {
+            next = inFlight.poll();
+        } else {
+            try {
+                next = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new IllegalStateException("interrupted while waiting for a result", e);
+            }
+            inFlight.remove(next);
+        }
+        R result;
+        try {
+            result = next.join();
+        } catch (CompletionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+        action.accept(result);
+        return true;
+    }
+
+    @Override
+    public void accept(T element) {
+        CompletableFuture<? extends R> future = mapper.apply(element).toCompletableFuture();
+        inFlight.add(future);
+        if (!ordered) {
+            future.whenComplete((result, failure) -> completed.add(future));
+        }
+    }
+
+    @Override
+    public Spliterator<R> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return underlying.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return ordered ? underlying.characteristics() & ORDERED : 0;
+    }
+
+    /**
+     * Cancels every pending result, and stops reading the underlying spliterator.
+     */
+    void cancel() {
+        exhausted = true;
+        inFlight.forEach(future -> future.cancel(true));
+        inFlight.clear();
+    }
+}
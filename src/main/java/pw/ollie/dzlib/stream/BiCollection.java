@@ -23,14 +23,19 @@
  */
 package pw.ollie.dzlib.stream;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.*;
 import static java.util.Objects.*;
@@ -53,9 +58,19 @@ public final class BiCollection<L, R> {
     private static final BiCollection<?, ?> EMPTY = from(Collections.emptyList());
 
     private final Collection<? extends Map.Entry<L, R>> entries;
+    /**
+     * {@code entries}, if it is column-oriented, otherwise null.
+     */
+    private final Columns<L, R> columns;
 
     private BiCollection(Collection<? extends Map.Entry<L, R>> underlying) {
         this.entries = requireNonNull(underlying);
+        this.columns = null;
+    }
+
+    private BiCollection(Columns<L, R> columns) {
+        this.entries = requireNonNull(columns);
+        this.columns = columns;
     }
 
     /**
@@ -120,9 +135,10 @@ public final class BiCollection<L, R> {
     public static <T, L, R> Collector<T, ?, BiCollection<L, R>> toBiCollection(Function<? super T, ? extends L> leftFunction, Function<? super T, ? extends R> rightFunction) {
         requireNonNull(leftFunction);
         requireNonNull(rightFunction);
-        Function<T, Map.Entry<L, R>> toEntry = x -> kv(leftFunction.apply(x), rightFunction.apply(x));
-        Collector<T, ?, ? extends Collection<Map.Entry<L, R>>> entryCollector = Collectors.mapping(toEntry, Collectors.toList());
-        return Collectors.collectingAndThen(entryCollector, BiCollection::from);
+        return Collector.of(Builder<L, R>::new,
+                (builder, x) -> builder.add(leftFunction.apply(x), rightFunction.apply(x)),
+                Builder::addAll,
+                Builder::build);
     }
 
     /**
@@ -136,9 +152,69 @@ public final class BiCollection<L, R> {
      * Streams over this {@code BiCollection}.
      */
     public BiStream<L, R> stream() {
+        if (columns != null) {
+            return columns.stream(false);
+        }
         return BiStream.from(entries.stream());
     }
 
+    /**
+     * Streams over this {@code BiCollection} in parallel.
+     */
+    public BiStream<L, R> parallelStream() {
+        if (columns != null) {
+            return columns.stream(true);
+        }
+        return BiStream.from(entries.parallelStream());
+    }
+
+    /**
+     * Passes each pair in this {@code BiCollection} to {@code action}, in order.
+     */
+    public void forEach(BiConsumer<? super L, ? super R> action) {
+        requireNonNull(action);
+        if (columns != null) {
+            columns.forEach(action);
+        } else {
+            for (Map.Entry<L, R> entry : entries) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the right values paired with {@code left}, in order.
+     * <p>
+     * For a {@code BiCollection} created by {@link Builder} or {@link #toBiCollection}, a hash
+     * index over the left values is built on the first lookup and reused afterwards, and the
+     * returned list is a view over the existing pairs. Otherwise, the pairs are scanned on every
+     * lookup.
+     *
+     * @param left the left value to look up
+     * @return an unmodifiable list of the right values paired with {@code left}
+     */
+    public List<R> lookupLeft(L left) {
+        if (columns != null) {
+            return columns.lookupLeft(left);
+        }
+        return stream().filterKeys(l -> Objects.equals(l, left)).values().collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+    }
+
+    /**
+     * Returns the left values paired with {@code right}, in order.
+     * <p>
+     * Indexing behaves as described for {@link #lookupLeft}.
+     *
+     * @param right the right value to look up
+     * @return an unmodifiable list of the left values paired with {@code right}
+     */
+    public List<L> lookupRight(R right) {
+        if (columns != null) {
+            return columns.lookupRight(right);
+        }
+        return stream().filterValues(r -> Objects.equals(r, right)).keys().collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+    }
+
     @Override
     public int hashCode() {
         return entries.hashCode();
@@ -158,17 +234,97 @@ public final class BiCollection<L, R> {
         return entries.toString();
     }
 
+    /**
+     * Pairs stored in two parallel arrays, rather than as an entry object per pair. Entries
+     * are only created when accessed through the {@link List} interface.
+     */
+    private static final class Columns<L, R> extends AbstractList<Map.Entry<L, R>> implements RandomAccess {
+        private final Object[] lefts;
+        private final Object[] rights;
+        private volatile ColumnIndex leftIndex;
+        private volatile ColumnIndex rightIndex;
+
+        Columns(Object[] lefts, Object[] rights) {
+            this.lefts = lefts;
+            this.rights = rights;
+        }
+
+        @Override
+        public Map.Entry<L, R> get(int index) {
+            return kv(left(index), right(index));
+        }
+
+        @Override
+        public int size() {
+            return lefts.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        L left(int index) {
+            return (L) lefts[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        R right(int index) {
+            return (R) rights[index];
+        }
+
+        List<R> lookupLeft(L left) {
+            // the index is immutable, so racing builds are harmless
+            ColumnIndex index = leftIndex;
+            if (index == null) {
+                leftIndex = index = ColumnIndex.build(lefts);
+            }
+            return index.lookup(left, rights);
+        }
+
+        List<L> lookupRight(R right) {
+            ColumnIndex index = rightIndex;
+            if (index == null) {
+                rightIndex = index = ColumnIndex.build(rights);
+            }
+            return index.lookup(right, lefts);
+        }
+
+        void forEach(BiConsumer<? super L, ? super R> action) {
+            for (int i = 0; i < lefts.length; i++) {
+                action.accept(left(i), right(i));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        BiStream<L, R> stream(boolean parallel) {
+            // both sides are SIZED and SUBSIZED, so the zipped stream splits evenly
+            Stream<L> leftStream = (Stream<L>) Arrays.stream(lefts);
+            Stream<R> rightStream = (Stream<R>) Arrays.stream(rights);
+            return BiStream.zip(parallel ? leftStream.parallel() : leftStream, rightStream);
+        }
+    }
+
     /**
      * Builds {@link BiCollection}.
+     * <p>
+     * The pairs are stored in two arrays which grow as pairs are added, and the built
+     * {@code BiCollection} keeps its pairs in arrays in the same way, rather than allocating
+     * an entry for every pair.
      */
     public static final class Builder<L, R> {
-        private final List<Map.Entry<L, R>> pairs = new ArrayList<>();
+        private Object[] lefts = new Object[10];
+        private Object[] rights = new Object[10];
+        private int size;
 
         /**
          * Adds a new pair of {@code left} and {@code right}.
          */
         public Builder<L, R> add(L left, R right) {
-            pairs.add(kv(left, right));
+            if (size == lefts.length) {
+                int capacity = lefts.length + (lefts.length >> 1);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+            }
+            lefts[size] = left;
+            rights[size] = right;
+            size++;
             return this;
         }
 
@@ -184,7 +340,7 @@ public final class BiCollection<L, R> {
          */
         public Builder<L, R> addAll(Collection<? extends Map.Entry<? extends L, ? extends R>> entries) {
             for (Map.Entry<? extends L, ? extends R> entry : entries) {
-                pairs.add(kv(entry.getKey(), entry.getValue()));
+                add(entry.getKey(), entry.getValue());
             }
             return this;
         }
@@ -193,7 +349,7 @@ public final class BiCollection<L, R> {
          * Adds all key-value pairs from {@code entries} into this builder.
          */
         public Builder<L, R> addAll(BiCollection<? extends L, ? extends R> entries) {
-            entries.stream().forEachOrdered(this::add);
+            entries.forEach(this::add);
             return this;
         }
 
@@ -202,7 +358,20 @@ public final class BiCollection<L, R> {
          * at the time {@code build()} is invoked.
          */
         public BiCollection<L, R> build() {
-            return from(new ArrayList<>(pairs));
+            return new BiCollection<>(new Columns<>(Arrays.copyOf(lefts, size), Arrays.copyOf(rights, size)));
+        }
+
+        Builder<L, R> addAll(Builder<? extends L, ? extends R> that) {
+            lefts = ensureCapacity(lefts, size + that.size);
+            rights = ensureCapacity(rights, size + that.size);
+            System.arraycopy(that.lefts, 0, lefts, size, that.size);
+            System.arraycopy(that.rights, 0, rights, size, that.size);
+            size += that.size;
+            return this;
+        }
+
+        private static Object[] ensureCapacity(Object[] array, int capacity) {
+            return array.length >= capacity ? array : Arrays.copyOf(array, Math.max(capacity, array.length + (array.length >> 1)));
         }
     }
 }
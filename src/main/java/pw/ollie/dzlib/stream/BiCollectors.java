@@ -23,12 +23,28 @@
  */
 package pw.ollie.dzlib.stream;
 
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -86,6 +102,199 @@ public class BiCollectors {
         };
     }
 
+    /**
+     * Returns a concurrent {@link BiCollector} that collects the key-value pairs into a
+     * {@link ConcurrentMap}. When collecting a parallel stream, every thread accumulates into
+     * the same map, so there are no partial maps to merge.
+     *
+     * @throws IllegalStateException on collection if a key is encountered more than once
+     */
+    public static <K, V> BiCollector<K, V, ConcurrentMap<K, V>> toConcurrentMap() {
+        return new BiCollector<K, V, ConcurrentMap<K, V>>() {
+            @Override
+            public <E> Collector<E, ?, ConcurrentMap<K, V>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collectors.toConcurrentMap(toKey, toValue);
+            }
+        };
+    }
+
+    /**
+     * Returns a concurrent {@link BiCollector} that collects the key-value pairs into a
+     * {@link ConcurrentMap} using {@code valueMerger} to merge values of duplicate keys. When
+     * collecting a parallel stream, every thread accumulates into the same
+     * {@link ConcurrentHashMap}, which only locks the bin of a key while merging into it.
+     */
+    public static <K, V> BiCollector<K, V, ConcurrentMap<K, V>> toConcurrentMap(BinaryOperator<V> valueMerger) {
+        requireNonNull(valueMerger);
+        return new BiCollector<K, V, ConcurrentMap<K, V>>() {
+            @Override
+            public <E> Collector<E, ?, ConcurrentMap<K, V>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collectors.toConcurrentMap(toKey, toValue, valueMerger, ConcurrentHashMap::new);
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link BiCollector} that collects the key-value pairs into a
+     * {@link TLongObjectMap}, with each key converted by {@code keyFunction}, so that the keys
+     * are stored unboxed.
+     *
+     * @throws IllegalArgumentException on collection if a key is encountered more than once
+     */
+    public static <K, V> BiCollector<K, V, TLongObjectMap<V>> toLongObjectMap(ToLongFunction<? super K> keyFunction) {
+        return toLongObjectMap(keyFunction, (a, b) -> {
+            throw new IllegalArgumentException("Duplicate values encountered");
+        });
+    }
+
+    /**
+     * Returns a {@link BiCollector} that collects the key-value pairs into a
+     * {@link TLongObjectMap}, with each key converted by {@code keyFunction}, using
+     * {@code valueMerger} to merge values of duplicate keys.
+     */
+    public static <K, V> BiCollector<K, V, TLongObjectMap<V>> toLongObjectMap(ToLongFunction<? super K> keyFunction, BinaryOperator<V> valueMerger) {
+        requireNonNull(keyFunction);
+        requireNonNull(valueMerger);
+        return new BiCollector<K, V, TLongObjectMap<V>>() {
+            @Override
+            public <E> Collector<E, ?, TLongObjectMap<V>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collector.of(TLongObjectHashMap::new,
+                        (map, e) -> merge(map, keyFunction.applyAsLong(toKey.apply(e)), toValue.apply(e), valueMerger),
+                        (left, right) -> {
+                            right.forEachEntry((key, value) -> {
+                                merge(left, key, value, valueMerger);
+                                return true;
+                            });
+                            return left;
+                        });
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link BiCollector} that counts the pairs with each key into a
+     * {@link TObjectIntMap}, without boxing the counts.
+     */
+    public static <K, V> BiCollector<K, V, TObjectIntMap<K>> countingByKey() {
+        return summingInt(v -> 1);
+    }
+
+    /**
+     * Returns a {@link BiCollector} that sums {@code valueFunction} applied to the values of
+     * the pairs with each key into a {@link TObjectIntMap}, without boxing the sums.
+     */
+    public static <K, V> BiCollector<K, V, TObjectIntMap<K>> summingInt(ToIntFunction<? super V> valueFunction) {
+        requireNonNull(valueFunction);
+        return new BiCollector<K, V, TObjectIntMap<K>>() {
+            @Override
+            public <E> Collector<E, ?, TObjectIntMap<K>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collector.of(TObjectIntHashMap::new,
+                        (map, e) -> {
+                            int value = valueFunction.applyAsInt(toValue.apply(e));
+                            map.adjustOrPutValue(toKey.apply(e), value, value);
+                        },
+                        (left, right) -> {
+                            TObjectIntMap<K> smaller = left.size() < right.size() ? left : right;
+                            TObjectIntMap<K> larger = smaller == left ? right : left;
+                            smaller.forEachEntry((key, value) -> {
+                                larger.adjustOrPutValue(key, value, value);
+                                return true;
+                            });
+                            return larger;
+                        },
+                        Collector.Characteristics.UNORDERED);
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link BiCollector} that sums {@code valueFunction} applied to the values of
+     * the pairs with each key into a {@link TObjectLongMap}, without boxing the sums.
+     */
+    public static <K, V> BiCollector<K, V, TObjectLongMap<K>> summingLong(ToLongFunction<? super V> valueFunction) {
+        requireNonNull(valueFunction);
+        return new BiCollector<K, V, TObjectLongMap<K>>() {
+            @Override
+            public <E> Collector<E, ?, TObjectLongMap<K>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collector.of(TObjectLongHashMap::new,
+                        (map, e) -> {
+                            long value = valueFunction.applyAsLong(toValue.apply(e));
+                            map.adjustOrPutValue(toKey.apply(e), value, value);
+                        },
+                        (left, right) -> {
+                            TObjectLongMap<K> smaller = left.size() < right.size() ? left : right;
+                            TObjectLongMap<K> larger = smaller == left ? right : left;
+                            smaller.forEachEntry((key, value) -> {
+                                larger.adjustOrPutValue(key, value, value);
+                                return true;
+                            });
+                            return larger;
+                        },
+                        Collector.Characteristics.UNORDERED);
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link BiCollector} that sums {@code valueFunction} applied to the values of
+     * the pairs with each key into a {@link TObjectDoubleMap}, without boxing the sums.
+     */
+    public static <K, V> BiCollector<K, V, TObjectDoubleMap<K>> summingDouble(ToDoubleFunction<? super V> valueFunction) {
+        requireNonNull(valueFunction);
+        return new BiCollector<K, V, TObjectDoubleMap<K>>() {
+            @Override
+            public <E> Collector<E, ?, TObjectDoubleMap<K>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collector.of(TObjectDoubleHashMap::new,
+                        (map, e) -> {
+                            double value = valueFunction.applyAsDouble(toValue.apply(e));
+                            map.adjustOrPutValue(toKey.apply(e), value, value);
+                        },
+                        (left, right) -> {
+                            TObjectDoubleMap<K> smaller = left.size() < right.size() ? left : right;
+                            TObjectDoubleMap<K> larger = smaller == left ? right : left;
+                            smaller.forEachEntry((key, value) -> {
+                                larger.adjustOrPutValue(key, value, value);
+                                return true;
+                            });
+                            return larger;
+                        },
+                        Collector.Characteristics.UNORDERED);
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link BiCollector} that collects the first {@code k} pairs in the order
+     * produced by applying {@code comparator} on their keys, into a list sorted in that order.
+     * Pairs with equal keys may be chosen in any order.
+     *
+     * @see StreamUtil#topK(int, Comparator)
+     */
+    public static <K, V> BiCollector<K, V, List<Map.Entry<K, V>>> topKByKeys(int k, Comparator<? super K> comparator) {
+        return topK(k, Map.Entry.comparingByKey(comparator));
+    }
+
+    /**
+     * Returns a {@link BiCollector} that collects the first {@code k} pairs in the order
+     * produced by applying {@code comparator} on their values, into a list sorted in that
+     * order. Pairs with equal values may be chosen in any order.
+     *
+     * @see StreamUtil#topK(int, Comparator)
+     */
+    public static <K, V> BiCollector<K, V, List<Map.Entry<K, V>>> topKByValues(int k, Comparator<? super V> comparator) {
+        return topK(k, Map.Entry.comparingByValue(comparator));
+    }
+
+    private static <K, V> BiCollector<K, V, List<Map.Entry<K, V>>> topK(int k, Comparator<Map.Entry<K, V>> comparator) {
+        Collector<Map.Entry<K, V>, ?, List<Map.Entry<K, V>>> topK = StreamUtil.topK(k, comparator);
+        return new BiCollector<K, V, List<Map.Entry<K, V>>>() {
+            @Override
+            public <E> Collector<E, ?, List<Map.Entry<K, V>>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collectors.mapping(e -> BiStream.kv(toKey.apply(e), toValue.apply(e)), topK);
+            }
+        };
+    }
+
     /**
      * Returns a {@link Collector} that will flatten the map entries derived from the
      * input elements using {@code getEntries} function and then pass each key-value pair to
@@ -101,6 +310,53 @@ public class BiCollectors {
         return Collectors.flatMapping(getEntries.andThen(Collection::stream), downstream.bisecting(Map.Entry::getKey, Map.Entry::getValue));
     }
 
+    private static <V> void merge(TLongObjectMap<V> map, long key, V value, BinaryOperator<V> valueMerger) {
+        if (map.containsKey(key)) {
+            map.put(key, valueMerger.apply(map.get(key), value));
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * Returns a {@link BiCollector} into a {@link HyperLogLog} sketch of the distinct keys of
+     * the input pairs.
+     *
+     * @see StreamUtil#distinctCountSketch(int)
+     */
+    public static <K, V> BiCollector<K, V, HyperLogLog> distinctKeySketch(int precision) {
+        return keys(StreamUtil.distinctCountSketch(precision));
+    }
+
+    /**
+     * Returns a {@link BiCollector} into a {@link CountMinSketch} of the frequencies of the
+     * keys of the input pairs.
+     *
+     * @see StreamUtil#frequencySketch(double, double)
+     */
+    public static <K, V> BiCollector<K, V, CountMinSketch> keyFrequencySketch(double epsilon, double confidence) {
+        return keys(StreamUtil.frequencySketch(epsilon, confidence));
+    }
+
+    /**
+     * Returns a {@link BiCollector} into a {@link SpaceSaving} sketch of the most frequent
+     * keys of the input pairs.
+     *
+     * @see StreamUtil#heavyHitters(int)
+     */
+    public static <K, V> BiCollector<K, V, SpaceSaving<K>> heavyHitterKeys(int capacity) {
+        return keys(StreamUtil.heavyHitters(capacity));
+    }
+
+    private static <K, V, R> BiCollector<K, V, R> keys(Collector<K, ?, R> collector) {
+        return new BiCollector<K, V, R>() {
+            @Override
+            public <E> Collector<E, ?, R> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collectors.mapping(toKey, collector);
+            }
+        };
+    }
+
     private BiCollectors() {
     }
 }
@@ -23,25 +23,37 @@
  */
 package pw.ollie.dzlib.stream;
 
+import gnu.trove.map.TObjectLongMap;
+
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
 import java.util.function.LongConsumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.ToDoubleBiFunction;
 import java.util.function.ToIntBiFunction;
+import java.util.function.ToIntFunction;
 import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
@@ -120,10 +132,12 @@ public abstract class BiStream<K, V> {
      * streams; if one stream is longer, its extra elements will be ignored.
      *
      * <p>
-     * The resulting stream by default runs sequentially regardless of the input
-     * streams. This is because the implementation is not <a href=
-     * "http://gee.cs.oswego.edu/dl/html/StreamParallelGuidance.html">efficiently
-     * splittable</a>. and may not perform well if run in parallel.
+     * The resulting stream is parallel if either input stream is parallel. It can
+     * only be split for parallel execution when both input streams know their exact
+     * size, including after splitting (that is, both are {@link Spliterator#SIZED}
+     * and {@link Spliterator#SUBSIZED}, like streams of lists or arrays); otherwise
+     * it runs sequentially. Splitting is cheapest when both inputs have the same
+     * length, since they then split at the same offsets.
      */
     public static <L, R> BiStream<L, R> zip(Stream<L> left, Stream<R> right) {
         return new ZippingStream<>(left, right);
@@ -140,7 +154,8 @@ public abstract class BiStream<K, V> {
      * }</pre>
      *
      * <p>Because Java runtime typically caches {@code Integer} instances for the range of
-     * {@code [0, 128]}, auto-boxing cost is negligible for small streams.
+     * {@code [0, 128]}, auto-boxing cost is negligible for small streams. For larger streams,
+     * prefer {@link IntObjBiStream#indexed}, which never boxes the indices.
      */
     public static <V> BiStream<Integer, V> indexed(Stream<V> values) {
         return zip(IntStream.iterate(0, i -> i + 1).boxed(), values);
@@ -177,6 +192,16 @@ public abstract class BiStream<K, V> {
         return new GenericEntryStream<>(stream, k -> k, toValue);
     }
 
+    /**
+     * Returns a sequential {@code BiStream} of the pairs published by {@code publisher},
+     * buffering at most {@code bufferSize} of them ahead of the stream being read.
+     *
+     * @see StreamUtil#fromPublisher
+     */
+    public static <K, V> BiStream<K, V> fromPublisher(Flow.Publisher<? extends Map.Entry<? extends K, ? extends V>> publisher, int bufferSize) {
+        return from(StreamUtil.<Map.Entry<? extends K, ? extends V>>fromPublisher(publisher, bufferSize));
+    }
+
     static <K, V, E extends Map.Entry<? extends K, ? extends V>> BiStream<K, V> from(Stream<E> entryStream) {
         return new GenericEntryStream<>(entryStream, Map.Entry::getKey, Map.Entry::getValue) {
             @Override
@@ -215,6 +240,39 @@ public abstract class BiStream<K, V> {
         return mapToObj(BiStream::kv);
     }
 
+    /**
+     * Returns a {@link Cursor} over the pairs in this stream. Like {@link #mapToEntry},
+     * this consumes the stream.
+     */
+    Cursor<K, V> cursor() {
+        return new SpliteratorCursor<>(mapToEntry().spliterator(), Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Closes the streams underlying this stream, if any.
+     */
+    void closeUnderlying() {
+    }
+
+    /**
+     * Returns an equivalent sequential {@code BiStream} in which {@link #map map},
+     * {@link #filter filter}, {@link #peek peek}, {@link #limit limit},
+     * {@link #skip skip}, {@link #inverse inverse} and their {@code *Keys()} and
+     * {@code *Values()} variants pass a single, reused key-value cursor from stage to
+     * stage, rather than allocating a {@link Map.Entry} for every pair at every stage.
+     * Pairs are only allocated by operations which need to hold on to them, such as
+     * {@link #sortedByKeys sortedByKeys()} or {@link #distinct distinct()}, and by
+     * whatever collector is passed to {@link #collect collect()}.
+     * <p>
+     * Other operations which return a {@code BiStream}, such as {@link #flatMap flatMap()}
+     * or {@link #append append()}, return a stream in the default execution mode.
+     * <p>
+     * The returned stream always runs sequentially.
+     */
+    public BiStream<K, V> reusingEntries() {
+        return new CursorStream<>(this::cursor, this::closeUnderlying);
+    }
+
     /**
      * Returns a {@code Stream} consisting of the results of applying {@code mapper}
      * to each pair in this {@code BiStream}.
@@ -250,6 +308,36 @@ public abstract class BiStream<K, V> {
      */
     public abstract LongStream mapToLong(ToLongBiFunction<? super K, ? super V> mapper);
 
+    /**
+     * Returns an {@link IntObjBiStream} of pairs whose keys are the result of
+     * applying {@code keyMapper} to the key of each pair in this {@code BiStream},
+     * and whose values are unchanged. The resulting keys are never boxed.
+     */
+    public IntObjBiStream<V> mapKeysToInt(ToIntFunction<? super K> keyMapper) {
+        requireNonNull(keyMapper);
+        return IntObjBiStream.from(mapToEntry(), e -> keyMapper.applyAsInt(e.getKey()), Map.Entry::getValue);
+    }
+
+    /**
+     * Returns a {@link LongObjBiStream} of pairs whose keys are the result of
+     * applying {@code keyMapper} to the key of each pair in this {@code BiStream},
+     * and whose values are unchanged. The resulting keys are never boxed.
+     */
+    public LongObjBiStream<V> mapKeysToLong(ToLongFunction<? super K> keyMapper) {
+        requireNonNull(keyMapper);
+        return LongObjBiStream.from(mapToEntry(), e -> keyMapper.applyAsLong(e.getKey()), Map.Entry::getValue);
+    }
+
+    /**
+     * Returns an {@link ObjIntBiStream} of pairs whose values are the result of
+     * applying {@code valueMapper} to the value of each pair in this {@code BiStream},
+     * and whose keys are unchanged. The resulting values are never boxed.
+     */
+    public ObjIntBiStream<K> mapValuesToInt(ToIntFunction<? super V> valueMapper) {
+        requireNonNull(valueMapper);
+        return ObjIntBiStream.from(mapToEntry(), Map.Entry::getKey, e -> valueMapper.applyAsInt(e.getValue()));
+    }
+
     /**
      * Returns a {@code BiStream} of pairs whose keys are the result of applying
      * {@code keyMapper} to the key of each pair in this {@code BiStream}, and whose
@@ -380,7 +468,7 @@ public abstract class BiStream<K, V> {
      * additionally invoking {@code action} on each pair as pairs are
      * consumed from the resulting stream.
      */
-    public final BiStream<K, V> peek(BiConsumer<? super K, ? super V> action) {
+    public BiStream<K, V> peek(BiConsumer<? super K, ? super V> action) {
         requireNonNull(action);
         return from(mapToEntry().peek(e -> action.accept(e.getKey(), e.getValue())));
     }
@@ -388,7 +476,7 @@ public abstract class BiStream<K, V> {
     /**
      * Filter this stream to only pairs matching {@code predicate}.
      */
-    public final BiStream<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+    public BiStream<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
         requireNonNull(predicate);
         return from(mapToEntry().filter(kv -> predicate.test(kv.getKey(), kv.getValue())));
     }
@@ -531,6 +619,347 @@ public abstract class BiStream<K, V> {
         return from(mapToEntry().sorted(Comparator.comparing(Map.Entry::getValue, comparator)));
     }
 
+    /**
+     * Returns a {@code BiStream} of the first {@code k} pairs of this stream in the order
+     * produced by applying {@code comparator} on the keys of each pair. This is equivalent
+     * to {@code sortedByKeys(comparator).limit(k)}, except that pairs with equal keys may be
+     * chosen in any order, and takes {@code O(n log k)} time and {@code O(k)} memory.
+     *
+     * @see StreamUtil#topK(Stream, int, Comparator)
+     */
+    public final BiStream<K, V> topKByKeys(int k, Comparator<? super K> comparator) {
+        requireNonNull(comparator);
+        return topK(k, Comparator.comparing(Map.Entry::getKey, comparator));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the first {@code k} pairs of this stream in the order
+     * produced by applying {@code comparator} on the values of each pair. This is equivalent
+     * to {@code sortedByValues(comparator).limit(k)}, except that pairs with equal values may
+     * be chosen in any order, and takes {@code O(n log k)} time and {@code O(k)} memory.
+     *
+     * @see StreamUtil#topK(Stream, int, Comparator)
+     */
+    public final BiStream<K, V> topKByValues(int k, Comparator<? super V> comparator) {
+        requireNonNull(comparator);
+        return topK(k, Comparator.comparing(Map.Entry::getValue, comparator));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the first {@code k} pairs of this stream in the order
+     * of {@code keyOrdering}, then {@code valueOrdering}. This is equivalent to
+     * {@code sorted(keyOrdering, valueOrdering).limit(k)}, but takes {@code O(n log k)} time
+     * and {@code O(k)} memory.
+     *
+     * @see StreamUtil#topK(Stream, int, Comparator)
+     */
+    public final BiStream<K, V> topK(int k, Comparator<? super K> keyOrdering, Comparator<? super V> valueOrdering) {
+        Comparator<Map.Entry<? extends K, ? extends V>> byKey = Comparator.comparing(Map.Entry::getKey, keyOrdering);
+        Comparator<Map.Entry<? extends K, ? extends V>> byValue = Comparator.comparing(Map.Entry::getValue, valueOrdering);
+        return topK(k, byKey.thenComparing(byValue));
+    }
+
+    private BiStream<K, V> topK(int k, Comparator<Map.Entry<? extends K, ? extends V>> comparator) {
+        return topK(mapToEntry(), k, comparator);
+    }
+
+    private static <K, V, E extends Map.Entry<? extends K, ? extends V>> BiStream<K, V> topK(Stream<E> entries, int k, Comparator<Map.Entry<? extends K, ? extends V>> comparator) {
+        return from(StreamUtil.topK(entries, k, comparator));
+    }
+
+    /**
+     * Returns a {@code BiStream} of a uniform random sample of up to {@code k} pairs of this
+     * stream, in no particular order, taking {@code O(k)} memory.
+     * <p>
+     * This stream is read in full when the returned stream is first read.
+     *
+     * @see StreamUtil#sampling(int, long)
+     */
+    public final BiStream<K, V> sample(int k, long seed) {
+        return from(StreamUtil.sample(mapToEntry(), k, seed));
+    }
+
+    /**
+     * Returns a {@code BiStream} of a uniform random sample of up to {@code k} pairs for every
+     * distinct key in this stream, grouped by key in the order each key was first encountered.
+     * <p>
+     * This stream is read in full when the returned stream is first read.
+     *
+     * @see StreamUtil#stratifiedSampling(Function, int, long)
+     */
+    public final BiStream<K, V> sampleByKey(int k, long seed) {
+        return sampleByKey(mapToEntry(), k, seed);
+    }
+
+    private static <K, V, E extends Map.Entry<? extends K, ? extends V>> BiStream<K, V> sampleByKey(Stream<E> entries, int k, long seed) {
+        Collector<E, ?, Map<K, List<E>>> collector = StreamUtil.stratifiedSampling(Map.Entry::getKey, k, seed);
+        Stream<E> sampled = stream(() -> entries.collect(collector).values().stream().flatMap(List::stream).spliterator(), ORDERED, false);
+        return from(sampled.onClose(entries::close));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the pairs of this stream, each included independently with
+     * probability {@code p}, in encounter order.
+     *
+     * @see StreamUtil#sampleBernoulli(Stream, double, long)
+     */
+    public final BiStream<K, V> sampleBernoulli(double p, long seed) {
+        return from(StreamUtil.sampleBernoulli(mapToEntry(), p, seed));
+    }
+
+    /**
+     * Returns a {@code BiStream} consisting of the pairs in this stream, in the
+     * order produced by applying {@code comparator} on the keys of each pair, holding at
+     * most {@code maxInMemory} pairs in memory at once.
+     * <p>
+     * The pairs are read in runs which are sorted in the background and written to
+     * temporary files with {@code codec}, then lazily merged back together as the returned
+     * stream is read. If the whole stream fits in a single run, nothing is written. The
+     * temporary files are deleted once the returned stream has been fully read or is
+     * closed. The sort is stable, and the returned stream is sequential.
+     *
+     * @throws java.io.UncheckedIOException if the pairs can't be written or read back
+     */
+    public final BiStream<K, V> sortedByKeys(Comparator<? super K> comparator, int maxInMemory, PairCodec<K, V> codec) {
+        requireNonNull(comparator);
+        requireNonNull(codec);
+        return from(ExternalSorter.sorted(mapToEntry(), Comparator.comparing(Map.Entry::getKey, comparator), codec, maxInMemory));
+    }
+
+    /**
+     * Returns a {@code BiStream} consisting of the pairs in this stream, in the
+     * order produced by applying {@code comparator} on the values of each pair, holding at
+     * most {@code maxInMemory} pairs in memory at once.
+     *
+     * @throws java.io.UncheckedIOException if the pairs can't be written or read back
+     * @see #sortedByKeys(Comparator, int, PairCodec)
+     */
+    public final BiStream<K, V> sortedByValues(Comparator<? super V> comparator, int maxInMemory, PairCodec<K, V> codec) {
+        requireNonNull(comparator);
+        requireNonNull(codec);
+        return from(ExternalSorter.sorted(mapToEntry(), Comparator.comparing(Map.Entry::getValue, comparator), codec, maxInMemory));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the inner join of this stream with {@code other}: for
+     * every pair in this stream and every pair in {@code other} with an equal key, a pair
+     * of that key and the result of applying {@code combiner} to the two values.
+     * <p>
+     * A hash table is built from whichever of the two streams reports the smaller
+     * estimated size, and the other stream is then probed against it. If either stream
+     * is parallel, the table is built by partition in parallel and the result is parallel.
+     *
+     * @see #join(BiStream, BiFunction, BuildSide)
+     */
+    public final <V2, R> BiStream<K, R> join(BiStream<? extends K, ? extends V2> other, BiFunction<? super V, ? super V2, ? extends R> combiner) {
+        return join(other, combiner, BuildSide.SMALLER);
+    }
+
+    /**
+     * Returns a {@code BiStream} of the inner join of this stream with {@code other}: for
+     * every pair in this stream and every pair in {@code other} with an equal key, a pair
+     * of that key and the result of applying {@code combiner} to the two values.
+     * <p>
+     * The hash table is built from the side given by {@code buildSide}, which is read in
+     * full before the first result is produced; the other side is streamed. If either
+     * stream is parallel, the table is built by partition in parallel and the result is
+     * parallel.
+     */
+    public final <V2, R> BiStream<K, R> join(BiStream<? extends K, ? extends V2> other, BiFunction<? super V, ? super V2, ? extends R> combiner, BuildSide buildSide) {
+        requireNonNull(other);
+        requireNonNull(combiner);
+        requireNonNull(buildSide);
+        Stream<? extends Map.Entry<? extends K, ? extends V>> leftEntries = mapToEntry();
+        Stream<? extends Map.Entry<? extends K, ? extends V2>> rightEntries = other.mapToEntry();
+        boolean parallel = leftEntries.isParallel() || rightEntries.isParallel();
+        // nothing is read, and the table isn't built, until a terminal operation runs
+        Stream<Map.Entry<K, R>> joined = stream(() -> {
+            Spliterator<? extends Map.Entry<? extends K, ? extends V>> left = leftEntries.spliterator();
+            Spliterator<? extends Map.Entry<? extends K, ? extends V2>> right = rightEntries.spliterator();
+            boolean buildLeft = buildSide == BuildSide.LEFT
+                    || (buildSide == BuildSide.SMALLER && left.estimateSize() < right.estimateSize());
+            if (buildLeft) {
+                JoinTable<K, V> table = JoinTable.build(left, parallel);
+                return stream(right, parallel).<Map.Entry<K, R>>flatMap(r -> {
+                    List<V> matches = table.get(r.getKey());
+                    return matches == null ? null : matches.stream().map(l -> kv(r.getKey(), combiner.apply(l, r.getValue())));
+                }).spliterator();
+            } else {
+                JoinTable<K, V2> table = JoinTable.build(right, parallel);
+                return stream(left, parallel).<Map.Entry<K, R>>flatMap(l -> {
+                    List<V2> matches = table.get(l.getKey());
+                    return matches == null ? null : matches.stream().map(r -> kv(l.getKey(), combiner.apply(l.getValue(), r)));
+                }).spliterator();
+            }
+        }, ORDERED, parallel);
+        return from(joined.onClose(leftEntries::close).onClose(rightEntries::close));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the left outer join of this stream with {@code other}.
+     * This is the same as {@link #join(BiStream, BiFunction) join()}, except that a pair in
+     * this stream whose key isn't in {@code other} produces a single result, for which
+     * {@code combiner} is passed null as the value from {@code other}.
+     * <p>
+     * The hash table is always built from {@code other}, and this stream is streamed.
+     */
+    public final <V2, R> BiStream<K, R> leftJoin(BiStream<? extends K, ? extends V2> other, BiFunction<? super V, ? super V2, ? extends R> combiner) {
+        requireNonNull(other);
+        requireNonNull(combiner);
+        Stream<? extends Map.Entry<? extends K, ? extends V>> leftEntries = mapToEntry();
+        Stream<? extends Map.Entry<? extends K, ? extends V2>> rightEntries = other.mapToEntry();
+        boolean parallel = leftEntries.isParallel() || rightEntries.isParallel();
+        Stream<Map.Entry<K, R>> joined = stream(() -> {
+            JoinTable<K, V2> table = JoinTable.build(rightEntries.spliterator(), parallel);
+            return stream(leftEntries.spliterator(), parallel).<Map.Entry<K, R>>flatMap(l -> {
+                List<V2> matches = table.get(l.getKey());
+                return matches == null
+                        ? Stream.of(kv(l.getKey(), combiner.apply(l.getValue(), null)))
+                        : matches.stream().map(r -> kv(l.getKey(), combiner.apply(l.getValue(), r)));
+            }).spliterator();
+        }, ORDERED, parallel);
+        return from(joined.onClose(leftEntries::close).onClose(rightEntries::close));
+    }
+
+    /**
+     * Returns a {@code BiStream} with one pair for every distinct key in either this
+     * stream or {@code other}, of that key and the result of applying {@code grouper} to
+     * the values paired with it in this stream and in {@code other}, in encounter order.
+     * Either list is empty if its stream has no pairs with that key.
+     * <p>
+     * Both streams are read in full into hash tables when a terminal operation begins,
+     * and the keys of the result are in no particular order. If either stream is parallel,
+     * the tables are built by partition in parallel and the result is parallel.
+     */
+    public final <V2, R> BiStream<K, R> coGroup(BiStream<? extends K, ? extends V2> other, BiFunction<? super List<V>, ? super List<V2>, ? extends R> grouper) {
+        requireNonNull(other);
+        requireNonNull(grouper);
+        Stream<? extends Map.Entry<? extends K, ? extends V>> leftEntries = mapToEntry();
+        Stream<? extends Map.Entry<? extends K, ? extends V2>> rightEntries = other.mapToEntry();
+        boolean parallel = leftEntries.isParallel() || rightEntries.isParallel();
+        Stream<Map.Entry<K, R>> grouped = stream(() -> {
+            JoinTable<K, V> left = JoinTable.build(leftEntries.spliterator(), parallel);
+            JoinTable<K, V2> right = JoinTable.buildLike(left, rightEntries.spliterator(), parallel);
+            IntStream partitions = IntStream.range(0, left.partitionCount());
+            return (parallel ? partitions.parallel() : partitions).boxed()
+                    .flatMap(i -> Stream.concat(left.keys(i), right.keys(i).filter(k -> !left.containsKey(i, k))))
+                    .<Map.Entry<K, R>>map(k -> kv(k, grouper.apply(left.getOrEmpty(k), right.getOrEmpty(k))))
+                    .spliterator();
+        }, 0, parallel);
+        return from(grouped.onClose(leftEntries::close).onClose(rightEntries::close));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the inner join of this stream with {@code other}, both
+     * of which must already be sorted by key according to {@code comparator}, as produced
+     * by {@link #sortedByKeys sortedByKeys()}. The result is the same as that of
+     * {@link #join(BiStream, BiFunction) join()}, in key order.
+     * <p>
+     * Neither stream is read into memory: both are advanced together, and only the values
+     * of the current run of equal keys in {@code other} are buffered. The join is
+     * sequential.
+     */
+    public final <V2, R> BiStream<K, R> mergeJoin(BiStream<? extends K, ? extends V2> other, Comparator<? super K> comparator, BiFunction<? super V, ? super V2, ? extends R> combiner) {
+        requireNonNull(other);
+        requireNonNull(comparator);
+        requireNonNull(combiner);
+        Stream<? extends Map.Entry<? extends K, ? extends V>> leftEntries = mapToEntry();
+        Stream<? extends Map.Entry<? extends K, ? extends V2>> rightEntries = other.mapToEntry();
+        Stream<Map.Entry<K, R>> joined = stream(
+                () -> new MergeJoinSpliterator<>(leftEntries.iterator(), rightEntries.iterator(), comparator, combiner), ORDERED, false);
+        return from(joined.onClose(leftEntries::close).onClose(rightEntries::close));
+    }
+
+    /**
+     * Returns a sequential {@code BiStream} of the keys of this stream paired with the result
+     * of applying the asynchronous function {@code valueMapper} to each pair, with up to
+     * {@code maxInFlight} results pending at once.
+     *
+     * @see StreamUtil#mapAsync
+     */
+    public final <V2> BiStream<K, V2> mapValuesAsync(BiFunction<? super K, ? super V, ? extends CompletionStage<? extends V2>> valueMapper, int maxInFlight, boolean ordered) {
+        requireNonNull(valueMapper);
+        return from(StreamUtil.mapAsync(mapToEntry(), e -> {
+            K key = e.getKey();
+            return valueMapper.apply(key, e.getValue()).thenApply(v2 -> kv(key, v2));
+        }, maxInFlight, ordered));
+    }
+
+    /**
+     * Returns a {@link Flow.Publisher} of the pairs in this stream, which can be subscribed
+     * to once. Pairs are only read, on {@code executor}, as the subscriber requests them.
+     *
+     * @see StreamUtil#toPublisher
+     */
+    public final Flow.Publisher<Map.Entry<K, V>> toPublisher(Executor executor) {
+        return StreamUtil.toPublisher(mapToObj(BiStream::kv), executor);
+    }
+
+    /**
+     * Returns a sequential {@code BiStream} of the pairs in this stream, which are read ahead
+     * on a background thread into a buffer of up to {@code bufferSize} pairs.
+     *
+     * @see StreamUtil#prefetch(Stream, int, Executor)
+     */
+    public final BiStream<K, V> prefetch(int bufferSize) {
+        return from(StreamUtil.prefetch(mapToEntry(), bufferSize));
+    }
+
+    /**
+     * Returns a {@code BiStream} with one pair for every distinct key in this stream, of that
+     * key and the result of reducing its values with {@code reducer}, in the order each key
+     * was first encountered. Values are reduced as they're read, so only one value per
+     * distinct key is held at a time; a parallel stream reduces into one map per thread,
+     * which are merged at the end. Null values aren't supported.
+     * <p>
+     * This stream is read in full when the returned stream is first read.
+     */
+    public final BiStream<K, V> reduceByKey(BinaryOperator<V> reducer) {
+        requireNonNull(reducer);
+        return aggregated(BiCollectors.toMap(reducer));
+    }
+
+    /**
+     * Returns a {@code BiStream} with one pair for every distinct key in this stream, of that
+     * key and the result of folding its values into {@code zero} with {@code accumulator},
+     * in the order each key was first encountered. As with
+     * {@link Stream#reduce(Object, BiFunction, BinaryOperator)}, a parallel stream folds into
+     * one aggregate per key per thread, and these are merged with {@code combiner}, so
+     * {@code zero} must be an identity for {@code combiner}. Null aggregates aren't
+     * supported.
+     * <p>
+     * This stream is read in full when the returned stream is first read.
+     */
+    public final <A> BiStream<K, A> aggregateByKey(A zero, BiFunction<A, ? super V, A> accumulator, BinaryOperator<A> combiner) {
+        requireNonNull(accumulator);
+        requireNonNull(combiner);
+        return aggregated(new BiCollector<K, V, Map<K, A>>() {
+            @Override
+            public <E> Collector<E, ?, Map<K, A>> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return Collector.of(LinkedHashMap::new,
+                        (map, e) -> {
+                            V value = toValue.apply(e);
+                            map.compute(toKey.apply(e), (k, aggregate) -> accumulator.apply(aggregate == null ? zero : aggregate, value));
+                        },
+                        (left, right) -> {
+                            right.forEach((k, aggregate) -> left.merge(k, aggregate, combiner));
+                            return left;
+                        });
+            }
+        });
+    }
+
+    /**
+     * Returns the number of pairs with each key in this stream, counted without boxing.
+     */
+    public final TObjectLongMap<K> countByKey() {
+        return collect(BiCollectors.summingLong(v -> 1L));
+    }
+
+    private <A> BiStream<K, A> aggregated(BiCollector<? super K, ? super V, ? extends Map<K, A>> collector) {
+        return from(stream(() -> collect(collector).entrySet().spliterator(), ORDERED, false));
+    }
+
     /**
      * Returns the count of pairs in this stream.
      */
@@ -547,6 +976,26 @@ public abstract class BiStream<K, V> {
      */
     public abstract <R> R collect(BiCollector<? super K, ? super V, R> collector);
 
+    /**
+     * The side of a {@link #join(BiStream, BiFunction, BuildSide) join} from which the
+     * hash table is built.
+     */
+    public enum BuildSide {
+        /**
+         * Build from the stream {@code join} is called on.
+         */
+        LEFT,
+        /**
+         * Build from the stream passed to {@code join}.
+         */
+        RIGHT,
+        /**
+         * Build from whichever stream reports the smaller estimated size, or from the
+         * right if neither does.
+         */
+        SMALLER
+    }
+
     static <K, V> Map.Entry<K, V> kv(K key, V value) {
         return new AbstractMap.SimpleImmutableEntry<>(key, value);
     }
@@ -555,6 +1004,26 @@ public abstract class BiStream<K, V> {
         return stream == null ? Stream.empty() : stream;
     }
 
+    private static boolean emit(int result, IntConsumer consumer) {
+        consumer.accept(result);
+        return true;
+    }
+
+    private static boolean emit(long result, LongConsumer consumer) {
+        consumer.accept(result);
+        return true;
+    }
+
+    private static boolean emit(double result, DoubleConsumer consumer) {
+        consumer.accept(result);
+        return true;
+    }
+
+    private static <T> boolean emit(T result, Consumer<? super T> consumer) {
+        consumer.accept(result);
+        return true;
+    }
+
     /**
      * An implementation that operates on a generic entry type {@code <E>} using two
      * functions to extract the 'key' and 'value' from each entry.
@@ -621,6 +1090,39 @@ public abstract class BiStream<K, V> {
             return from(underlying, toKey, toValue.andThen(valueMapper));
         }
 
+        @Override
+        public IntObjBiStream<V> mapKeysToInt(ToIntFunction<? super K> keyMapper) {
+            requireNonNull(keyMapper);
+            return IntObjBiStream.from(underlying, e -> keyMapper.applyAsInt(toKey.apply(e)), toValue);
+        }
+
+        @Override
+        public LongObjBiStream<V> mapKeysToLong(ToLongFunction<? super K> keyMapper) {
+            requireNonNull(keyMapper);
+            return LongObjBiStream.from(underlying, e -> keyMapper.applyAsLong(toKey.apply(e)), toValue);
+        }
+
+        @Override
+        public ObjIntBiStream<K> mapValuesToInt(ToIntFunction<? super V> valueMapper) {
+            requireNonNull(valueMapper);
+            return ObjIntBiStream.from(underlying, toKey, e -> valueMapper.applyAsInt(toValue.apply(e)));
+        }
+
+        @Override
+        public <K2, V2> BiStream<K2, V2> map(BiFunction<? super K, ? super V, ? extends K2> keyMapper, BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+            return new FusedStream<>(underlying, toKey, toValue, Step.map(keyMapper, valueMapper), true);
+        }
+
+        @Override
+        public BiStream<K, V> peek(BiConsumer<? super K, ? super V> action) {
+            return new FusedStream<>(underlying, toKey, toValue, Step.peek(action), true);
+        }
+
+        @Override
+        public BiStream<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+            return new FusedStream<>(underlying, toKey, toValue, Step.filter(predicate), false);
+        }
+
         @Override
         public final BiStream<V, K> inverse() {
             return from(underlying, toValue, toKey);
@@ -665,158 +1167,1011 @@ public abstract class BiStream<K, V> {
             return underlying.collect(collector.bisecting(toKey::apply, toValue::apply));
         }
 
+        @Override
+        Cursor<K, V> cursor() {
+            return new SpliteratorCursor<>(underlying.spliterator(), toKey, toValue);
+        }
+
+        @Override
+        void closeUnderlying() {
+            underlying.close();
+        }
+
         final <T> Function<E, T> forEntry(BiFunction<? super K, ? super V, T> function) {
             requireNonNull(function);
             return e -> function.apply(toKey.apply(e), toValue.apply(e));
         }
     }
 
-    private static final class ZippingStream<K, V> extends BiStream<K, V> {
-        private final Stream<K> left;
-        private final Stream<V> right;
+    /**
+     * An implementation which runs consecutive {@link #map map}, {@link #filter filter}
+     * and {@link #peek peek} operations over a generic entry type {@code <E>} as a single
+     * pipeline. Rather than wrapping a new stream around the previous one for every
+     * operation, each operation is composed onto the pipeline's {@link Step}, so each
+     * element of the underlying stream passes through every operation in a single call,
+     * and {@code toKey} and {@code toValue} are still invoked exactly once per element.
+     * <p>
+     * Other operations such as {@link #limit limit()} or {@link #sorted sorted()} fall back
+     * to a stream of entries.
+     */
+    private static final class FusedStream<E, K, V> extends BiStream<K, V> {
+        private final Stream<E> underlying;
+        private final Function<? super E, ?> toKey;
+        private final Function<? super E, ?> toValue;
+        private final Step step;
+        // false once any step may drop pairs
+        private final boolean preservesSize;
 
-        ZippingStream(Stream<K> left, Stream<V> right) {
-            this.left = requireNonNull(left);
-            this.right = requireNonNull(right);
+        FusedStream(Stream<E> underlying, Function<? super E, ?> toKey, Function<? super E, ?> toValue, Step step, boolean preservesSize) {
+            this.underlying = requireNonNull(underlying);
+            this.toKey = requireNonNull(toKey);
+            this.toValue = requireNonNull(toValue);
+            this.step = step;
+            this.preservesSize = preservesSize;
         }
 
         @Override
         public <T> Stream<T> mapToObj(BiFunction<? super K, ? super V, ? extends T> mapper) {
             requireNonNull(mapper);
-            return stream(() -> new Spliteration().<T>ofObj(mapper), ORDERED, false).onClose(left::close).onClose(right::close);
+            return stream(() -> new Evaluation().<T>ofObj(mapper), ORDERED, underlying.isParallel()).onClose(underlying::close);
         }
 
         @Override
         public DoubleStream mapToDouble(ToDoubleBiFunction<? super K, ? super V> mapper) {
             requireNonNull(mapper);
-            return doubleStream(() -> new Spliteration().ofDouble(mapper), ORDERED, false).onClose(left::close).onClose(right::close);
+            return doubleStream(() -> new Evaluation().ofDouble(mapper), ORDERED, underlying.isParallel()).onClose(underlying::close);
         }
 
         @Override
         public IntStream mapToInt(ToIntBiFunction<? super K, ? super V> mapper) {
             requireNonNull(mapper);
-            return intStream(() -> new Spliteration().ofInt(mapper), ORDERED, false).onClose(left::close).onClose(right::close);
+            return intStream(() -> new Evaluation().ofInt(mapper), ORDERED, underlying.isParallel()).onClose(underlying::close);
         }
 
         @Override
         public LongStream mapToLong(ToLongBiFunction<? super K, ? super V> mapper) {
             requireNonNull(mapper);
-            return longStream(() -> new Spliteration().ofLong(mapper), ORDERED, false).onClose(left::close).onClose(right::close);
+            return longStream(() -> new Evaluation().ofLong(mapper), ORDERED, underlying.isParallel()).onClose(underlying::close);
+        }
+
+        @Override
+        public <K2, V2> BiStream<K2, V2> map(BiFunction<? super K, ? super V, ? extends K2> keyMapper, BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+            return then(Step.map(keyMapper, valueMapper), true);
         }
 
         @Override
         public <K2> BiStream<K2, V> mapKeys(Function<? super K, ? extends K2> keyMapper) {
-            return zip(left.map(keyMapper), right);
+            return then(Step.mapKeys(keyMapper), true);
         }
 
         @Override
         public <V2> BiStream<K, V2> mapValues(Function<? super V, ? extends V2> valueMapper) {
-            return zip(left, right.map(valueMapper));
+            return then(Step.mapValues(valueMapper), true);
+        }
+
+        @Override
+        public BiStream<K, V> peek(BiConsumer<? super K, ? super V> action) {
+            return then(Step.peek(action), true);
+        }
+
+        @Override
+        public BiStream<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+            return then(Step.filter(predicate), false);
         }
 
         @Override
         public BiStream<V, K> inverse() {
-            return zip(right, left);
+            return then(Step.map((k, v) -> v, (k, v) -> k), true);
         }
 
         @Override
         public void forEach(BiConsumer<? super K, ? super V> action) {
-            forEachOrdered(action);
+            requireNonNull(action);
+            if (underlying.isParallel()) {
+                // The mapped values are discarded; this only lets the pairs be visited in parallel
+                mapToObj((k, v) -> {
+                    action.accept(k, v);
+                    return null;
+                }).forEach(nothing -> {
+                });
+            } else {
+                forEachOrdered(action);
+            }
         }
 
         @Override
         public void forEachOrdered(BiConsumer<? super K, ? super V> action) {
             requireNonNull(action);
-            new Spliteration().forEach(action);
+            if (underlying.isParallel()) {
+                mapToObj((k, v) -> {
+                    action.accept(k, v);
+                    return null;
+                }).forEachOrdered(nothing -> {
+                });
+            } else {
+                Evaluation evaluation = new Evaluation();
+                while (evaluation.advance()) {
+                    action.accept(evaluation.key, evaluation.value);
+                }
+            }
         }
 
         @Override
         public boolean allMatch(BiPredicate<? super K, ? super V> predicate) {
             requireNonNull(predicate);
-            return new Spliteration().any(false, predicate); // any false = false
+            return mapToObj(predicate::test).allMatch(Boolean::booleanValue);
         }
 
         @Override
         public boolean anyMatch(BiPredicate<? super K, ? super V> predicate) {
             requireNonNull(predicate);
-            return new Spliteration().any(true, predicate); // any true = true
+            return mapToObj(predicate::test).anyMatch(Boolean::booleanValue);
         }
 
         @Override
         public BiStream<K, V> limit(int maxSize) {
-            return zip(left.limit(maxSize), right.limit(maxSize));
+            return from(mapToObj(BiStream::kv).limit(maxSize));
         }
 
         @Override
         public BiStream<K, V> skip(int n) {
-            return zip(left.skip(n), right.skip(n));
+            return from(mapToObj(BiStream::kv).skip(n));
         }
 
         @Override
         public <R> R collect(BiCollector<? super K, ? super V, R> collector) {
             requireNonNull(collector);
-            return new Spliteration().collectWith(collector);
+            if (underlying.isParallel()) {
+                return mapToObj(BiStream::kv).collect(collector.bisecting(Map.Entry::getKey, Map.Entry::getValue));
+            }
+            Evaluation evaluation = new Evaluation();
+            return evaluation.collectWith(collector.bisecting(x -> evaluation.key, x -> evaluation.value));
         }
 
-        private final class Spliteration {
-            private final Temp<K> currentLeft = new Temp<>();
-            private final Temp<V> currentRight = new Temp<>();
-            private final Spliterator<K> leftIt = left.spliterator();
-            private final Spliterator<V> rightIt = right.spliterator();
+        @Override
+        Cursor<K, V> cursor() {
+            return new Evaluation();
+        }
 
-            /**
-             * Returns {@code dominatingResult} if {@code predicate} evaluates to
-             * {@code dominatingResult} for any pair, or else returns
-             * {@code !dominatingResult}.
-             */
-            boolean any(boolean dominatingResult, BiPredicate<? super K, ? super V> predicate) {
-                while (advance()) {
-                    if (predicate.test(currentLeft.value, currentRight.value) == dominatingResult) {
-                        return dominatingResult;
+        @Override
+        void closeUnderlying() {
+            underlying.close();
+        }
+
+        private <K2, V2> BiStream<K2, V2> then(Step next, boolean nextPreservesSize) {
+            return new FusedStream<>(underlying, toKey, toValue, step.then(next), preservesSize && nextPreservesSize);
+        }
+
+        /**
+         * Runs the step over (part of) the underlying stream, leaving the current pair
+         * in {@link #key} and {@link #value}.
+         */
+        private final class Evaluation extends Cursor<K, V> implements Consumer<E> {
+            private final Spliterator<E> source;
+            private final Slot slot = new Slot();
+            private boolean passed;
+
+            Evaluation() {
+                this(underlying.spliterator());
+            }
+
+            Evaluation(Spliterator<E> source) {
+                this.source = source;
+            }
+
+            @Override
+            boolean advance() {
+                passed = false;
+                while (source.tryAdvance(this)) {
+                    if (passed) {
+                        return true;
                     }
                 }
-                return !dominatingResult;
+                return false;
             }
 
-            void forEach(BiConsumer<? super K, ? super V> consumer) {
-                while (advance()) {
-                    consumer.accept(currentLeft.value, currentRight.value);
+            @Override
+            @SuppressWarnings("unchecked")
+            public void accept(E element) {
+                slot.key = toKey.apply(element);
+                slot.value = toValue.apply(element);
+                if (step.apply(slot)) {
+                    key = (K) slot.key;
+                    value = (V) slot.value;
+                    passed = true;
                 }
             }
 
             <T> Spliterator<T> ofObj(BiFunction<? super K, ? super V, ? extends T> mapper) {
-                return new Spliterators.AbstractSpliterator<T>(estimateSize(), ORDERED) {
+                return new Spliterators.AbstractSpliterator<T>(source.estimateSize(), characteristics()) {
+                    @Override
+                    public boolean tryAdvance(Consumer<? super T> consumer) {
+                        return advance() && emit(mapper.apply(key, value), consumer);
+                    }
+
+                    @Override
+                    public Spliterator<T> trySplit() {
+                        Evaluation prefix = Evaluation.this.trySplit();
+                        return prefix == null ? null : prefix.ofObj(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return source.estimateSize();
+                    }
+                };
+            }
+
+            Spliterator.OfInt ofInt(ToIntBiFunction<? super K, ? super V> mapper) {
+                return new Spliterators.AbstractIntSpliterator(source.estimateSize(), characteristics()) {
+                    @Override
+                    public boolean tryAdvance(IntConsumer consumer) {
+                        return advance() && emit(mapper.applyAsInt(key, value), consumer);
+                    }
+
+                    @Override
+                    public Spliterator.OfInt trySplit() {
+                        Evaluation prefix = Evaluation.this.trySplit();
+                        return prefix == null ? null : prefix.ofInt(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return source.estimateSize();
+                    }
+                };
+            }
+
+            Spliterator.OfLong ofLong(ToLongBiFunction<? super K, ? super V> mapper) {
+                return new Spliterators.AbstractLongSpliterator(source.estimateSize(), characteristics()) {
+                    @Override
+                    public boolean tryAdvance(LongConsumer consumer) {
+                        return advance() && emit(mapper.applyAsLong(key, value), consumer);
+                    }
+
+                    @Override
+                    public Spliterator.OfLong trySplit() {
+                        Evaluation prefix = Evaluation.this.trySplit();
+                        return prefix == null ? null : prefix.ofLong(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return source.estimateSize();
+                    }
+                };
+            }
+
+            Spliterator.OfDouble ofDouble(ToDoubleBiFunction<? super K, ? super V> mapper) {
+                return new Spliterators.AbstractDoubleSpliterator(source.estimateSize(), characteristics()) {
+                    @Override
+                    public boolean tryAdvance(DoubleConsumer consumer) {
+                        return advance() && emit(mapper.applyAsDouble(key, value), consumer);
+                    }
+
+                    @Override
+                    public Spliterator.OfDouble trySplit() {
+                        Evaluation prefix = Evaluation.this.trySplit();
+                        return prefix == null ? null : prefix.ofDouble(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return source.estimateSize();
+                    }
+                };
+            }
+
+            /**
+             * {@code collector} internally reads from {@link #key} and {@link #value}.
+             */
+            <A, R> R collectWith(Collector<Void, A, R> collector) {
+                A container = collector.supplier().get();
+                BiConsumer<A, Void> accumulator = collector.accumulator();
+                while (advance()) {
+                    accumulator.accept(container, null);
+                }
+                return collector.finisher().apply(container);
+            }
+
+            Evaluation trySplit() {
+                Spliterator<E> prefix = source.trySplit();
+                return prefix == null ? null : new Evaluation(prefix);
+            }
+
+            private int characteristics() {
+                int characteristics = source.characteristics() & ORDERED;
+                if (source.hasCharacteristics(SIZED | SUBSIZED) && preservesSize) {
+                    characteristics |= SIZED | SUBSIZED;
+                }
+                return characteristics;
+            }
+        }
+    }
+
+    /**
+     * The operations of a {@link FusedStream}, applied in place to the pair held in a
+     * {@link Slot}. Each operation appended to a pipeline is composed onto the previous step
+     * with {@link #then}, so the pipeline runs as a chain of calls without any intermediate
+     * stream or entry per operation.
+     * <p>
+     * The lambda classes, and so their call sites, are shared by every pipeline: once
+     * pipelines of different shapes have run, those call sites are polymorphic. What fusion
+     * saves is the wrapping stream and the entry allocated per operation, not the virtual
+     * calls between operations.
+     */
+    @FunctionalInterface
+    private interface Step {
+        /**
+         * Applies this step to the pair in {@code slot}, returning false if the pair was
+         * filtered out, in which case the contents of {@code slot} are unspecified.
+         */
+        boolean apply(Slot slot);
+
+        default Step then(Step next) {
+            return slot -> apply(slot) && next.apply(slot);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K, V> Step map(BiFunction<? super K, ? super V, ?> keyMapper, BiFunction<? super K, ? super V, ?> valueMapper) {
+            requireNonNull(keyMapper);
+            requireNonNull(valueMapper);
+            return slot -> {
+                K k = (K) slot.key;
+                V v = (V) slot.value;
+                slot.key = keyMapper.apply(k, v);
+                slot.value = valueMapper.apply(k, v);
+                return true;
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K> Step mapKeys(Function<? super K, ?> keyMapper) {
+            requireNonNull(keyMapper);
+            return slot -> {
+                slot.key = keyMapper.apply((K) slot.key);
+                return true;
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Step mapValues(Function<? super V, ?> valueMapper) {
+            requireNonNull(valueMapper);
+            return slot -> {
+                slot.value = valueMapper.apply((V) slot.value);
+                return true;
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K, V> Step filter(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            return slot -> predicate.test((K) slot.key, (V) slot.value);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K, V> Step peek(BiConsumer<? super K, ? super V> action) {
+            requireNonNull(action);
+            return slot -> {
+                action.accept((K) slot.key, (V) slot.value);
+                return true;
+            };
+        }
+    }
+
+    /**
+     * The current pair of an evaluation of a {@link Step}.
+     */
+    private static final class Slot {
+        Object key;
+        Object value;
+    }
+
+    /**
+     * An implementation which passes a single mutable {@link Cursor} through its stages
+     * instead of a stream of entries. Each stage is a cursor reading from the cursor of the
+     * previous stage, so a pair is only allocated when a terminal operation needs one.
+     */
+    private static final class CursorStream<K, V> extends BiStream<K, V> {
+        private final Supplier<? extends Cursor<K, V>> cursors;
+        private final Runnable closeHandler;
+
+        CursorStream(Supplier<? extends Cursor<K, V>> cursors, Runnable closeHandler) {
+            this.cursors = requireNonNull(cursors);
+            this.closeHandler = requireNonNull(closeHandler);
+        }
+
+        @Override
+        public <T> Stream<T> mapToObj(BiFunction<? super K, ? super V, ? extends T> mapper) {
+            requireNonNull(mapper);
+            return stream(() -> {
+                Cursor<K, V> cursor = cursors.get();
+                return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, ORDERED) {
+                    @Override
+                    public boolean tryAdvance(Consumer<? super T> action) {
+                        if (!cursor.advance()) {
+                            return false;
+                        }
+                        action.accept(mapper.apply(cursor.key, cursor.value));
+                        return true;
+                    }
+                };
+            }, ORDERED, false).onClose(closeHandler);
+        }
+
+        @Override
+        public DoubleStream mapToDouble(ToDoubleBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return doubleStream(() -> {
+                Cursor<K, V> cursor = cursors.get();
+                return new Spliterators.AbstractDoubleSpliterator(Long.MAX_VALUE, ORDERED) {
+                    @Override
+                    public boolean tryAdvance(DoubleConsumer action) {
+                        if (!cursor.advance()) {
+                            return false;
+                        }
+                        action.accept(mapper.applyAsDouble(cursor.key, cursor.value));
+                        return true;
+                    }
+                };
+            }, ORDERED, false).onClose(closeHandler);
+        }
+
+        @Override
+        public IntStream mapToInt(ToIntBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return intStream(() -> {
+                Cursor<K, V> cursor = cursors.get();
+                return new Spliterators.AbstractIntSpliterator(Long.MAX_VALUE, ORDERED) {
+                    @Override
+                    public boolean tryAdvance(IntConsumer action) {
+                        if (!cursor.advance()) {
+                            return false;
+                        }
+                        action.accept(mapper.applyAsInt(cursor.key, cursor.value));
+                        return true;
+                    }
+                };
+            }, ORDERED, false).onClose(closeHandler);
+        }
+
+        @Override
+        public LongStream mapToLong(ToLongBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return longStream(() -> {
+                Cursor<K, V> cursor = cursors.get();
+                return new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE, ORDERED) {
+                    @Override
+                    public boolean tryAdvance(LongConsumer action) {
+                        if (!cursor.advance()) {
+                            return false;
+                        }
+                        action.accept(mapper.applyAsLong(cursor.key, cursor.value));
+                        return true;
+                    }
+                };
+            }, ORDERED, false).onClose(closeHandler);
+        }
+
+        @Override
+        public <K2, V2> BiStream<K2, V2> map(BiFunction<? super K, ? super V, ? extends K2> keyMapper, BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+            requireNonNull(keyMapper);
+            requireNonNull(valueMapper);
+            return then(cursor -> new MappingCursor<>(cursor, keyMapper, valueMapper));
+        }
+
+        @Override
+        public <K2> BiStream<K2, V> mapKeys(Function<? super K, ? extends K2> keyMapper) {
+            requireNonNull(keyMapper);
+            return map((k, v) -> keyMapper.apply(k), (k, v) -> v);
+        }
+
+        @Override
+        public <V2> BiStream<K, V2> mapValues(Function<? super V, ? extends V2> valueMapper) {
+            requireNonNull(valueMapper);
+            return map((k, v) -> k, (k, v) -> valueMapper.apply(v));
+        }
+
+        @Override
+        public BiStream<K, V> peek(BiConsumer<? super K, ? super V> action) {
+            requireNonNull(action);
+            return then(cursor -> new PeekingCursor<>(cursor, action));
+        }
+
+        @Override
+        public BiStream<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            return then(cursor -> new FilteringCursor<>(cursor, predicate));
+        }
+
+        @Override
+        public BiStream<V, K> inverse() {
+            return map((k, v) -> v, (k, v) -> k);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            forEachOrdered(action);
+        }
+
+        @Override
+        public void forEachOrdered(BiConsumer<? super K, ? super V> action) {
+            requireNonNull(action);
+            Cursor<K, V> cursor = cursors.get();
+            while (cursor.advance()) {
+                action.accept(cursor.key, cursor.value);
+            }
+        }
+
+        @Override
+        public boolean allMatch(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            Cursor<K, V> cursor = cursors.get();
+            while (cursor.advance()) {
+                if (!predicate.test(cursor.key, cursor.value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean anyMatch(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            Cursor<K, V> cursor = cursors.get();
+            while (cursor.advance()) {
+                if (predicate.test(cursor.key, cursor.value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public BiStream<K, V> limit(int maxSize) {
+            if (maxSize < 0) throw new IllegalArgumentException(Integer.toString(maxSize));
+            return then(cursor -> new LimitingCursor<>(cursor, maxSize));
+        }
+
+        @Override
+        public BiStream<K, V> skip(int n) {
+            if (n < 0) throw new IllegalArgumentException(Integer.toString(n));
+            return then(cursor -> new SkippingCursor<>(cursor, n));
+        }
+
+        @Override
+        public <R> R collect(BiCollector<? super K, ? super V, R> collector) {
+            requireNonNull(collector);
+            Cursor<K, V> cursor = cursors.get();
+            return collectWith(cursor, collector.bisecting(x -> cursor.key, x -> cursor.value));
+        }
+
+        @Override
+        public BiStream<K, V> reusingEntries() {
+            return this;
+        }
+
+        @Override
+        Cursor<K, V> cursor() {
+            return cursors.get();
+        }
+
+        @Override
+        void closeUnderlying() {
+            closeHandler.run();
+        }
+
+        private <K2, V2> BiStream<K2, V2> then(Function<? super Cursor<K, V>, ? extends Cursor<K2, V2>> stage) {
+            return new CursorStream<>(() -> stage.apply(cursors.get()), closeHandler);
+        }
+
+        /**
+         * {@code collector} internally reads from {@code cursor}.
+         */
+        private static <A, R> R collectWith(Cursor<?, ?> cursor, Collector<Void, A, R> collector) {
+            A container = collector.supplier().get();
+            BiConsumer<A, Void> accumulator = collector.accumulator();
+            while (cursor.advance()) {
+                accumulator.accept(container, null);
+            }
+            return collector.finisher().apply(container);
+        }
+    }
+
+    /**
+     * A mutable view of the current pair in a stream, which is moved on to the next pair by
+     * {@link #advance}.
+     */
+    abstract static class Cursor<K, V> {
+        K key;
+        V value;
+
+        /**
+         * Moves this cursor on to the next pair.
+         *
+         * @return false if there are no pairs left
+         */
+        abstract boolean advance();
+    }
+
+    private static final class SpliteratorCursor<E, K, V> extends Cursor<K, V> implements Consumer<E> {
+        private final Spliterator<E> source;
+        private final Function<? super E, ? extends K> toKey;
+        private final Function<? super E, ? extends V> toValue;
+
+        SpliteratorCursor(Spliterator<E> source, Function<? super E, ? extends K> toKey, Function<? super E, ? extends V> toValue) {
+            this.source = source;
+            this.toKey = toKey;
+            this.toValue = toValue;
+        }
+
+        @Override
+        boolean advance() {
+            return source.tryAdvance(this);
+        }
+
+        @Override
+        public void accept(E element) {
+            key = toKey.apply(element);
+            value = toValue.apply(element);
+        }
+    }
+
+    private static final class MappingCursor<K, V, K2, V2> extends Cursor<K2, V2> {
+        private final Cursor<K, V> upstream;
+        private final BiFunction<? super K, ? super V, ? extends K2> keyMapper;
+        private final BiFunction<? super K, ? super V, ? extends V2> valueMapper;
+
+        MappingCursor(Cursor<K, V> upstream, BiFunction<? super K, ? super V, ? extends K2> keyMapper, BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+            this.upstream = upstream;
+            this.keyMapper = keyMapper;
+            this.valueMapper = valueMapper;
+        }
+
+        @Override
+        boolean advance() {
+            if (!upstream.advance()) {
+                return false;
+            }
+            key = keyMapper.apply(upstream.key, upstream.value);
+            value = valueMapper.apply(upstream.key, upstream.value);
+            return true;
+        }
+    }
+
+    private static final class FilteringCursor<K, V> extends Cursor<K, V> {
+        private final Cursor<K, V> upstream;
+        private final BiPredicate<? super K, ? super V> predicate;
+
+        FilteringCursor(Cursor<K, V> upstream, BiPredicate<? super K, ? super V> predicate) {
+            this.upstream = upstream;
+            this.predicate = predicate;
+        }
+
+        @Override
+        boolean advance() {
+            while (upstream.advance()) {
+                if (predicate.test(upstream.key, upstream.value)) {
+                    key = upstream.key;
+                    value = upstream.value;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class PeekingCursor<K, V> extends Cursor<K, V> {
+        private final Cursor<K, V> upstream;
+        private final BiConsumer<? super K, ? super V> action;
+
+        PeekingCursor(Cursor<K, V> upstream, BiConsumer<? super K, ? super V> action) {
+            this.upstream = upstream;
+            this.action = action;
+        }
+
+        @Override
+        boolean advance() {
+            if (!upstream.advance()) {
+                return false;
+            }
+            key = upstream.key;
+            value = upstream.value;
+            action.accept(key, value);
+            return true;
+        }
+    }
+
+    private static final class LimitingCursor<K, V> extends Cursor<K, V> {
+        private final Cursor<K, V> upstream;
+        private long remaining;
+
+        LimitingCursor(Cursor<K, V> upstream, long maxSize) {
+            this.upstream = upstream;
+            this.remaining = maxSize;
+        }
+
+        @Override
+        boolean advance() {
+            if (remaining <= 0 || !upstream.advance()) {
+                return false;
+            }
+            remaining--;
+            key = upstream.key;
+            value = upstream.value;
+            return true;
+        }
+    }
+
+    private static final class SkippingCursor<K, V> extends Cursor<K, V> {
+        private final Cursor<K, V> upstream;
+        private long toSkip;
+
+        SkippingCursor(Cursor<K, V> upstream, long n) {
+            this.upstream = upstream;
+            this.toSkip = n;
+        }
+
+        @Override
+        boolean advance() {
+            for (; toSkip > 0; toSkip--) {
+                if (!upstream.advance()) {
+                    return false;
+                }
+            }
+            if (!upstream.advance()) {
+                return false;
+            }
+            key = upstream.key;
+            value = upstream.value;
+            return true;
+        }
+    }
+
+    private static final class ZippingStream<K, V> extends BiStream<K, V> {
+        private final Stream<K> left;
+        private final Stream<V> right;
+
+        ZippingStream(Stream<K> left, Stream<V> right) {
+            this.left = requireNonNull(left);
+            this.right = requireNonNull(right);
+        }
+
+        @Override
+        public <T> Stream<T> mapToObj(BiFunction<? super K, ? super V, ? extends T> mapper) {
+            requireNonNull(mapper);
+            return stream(() -> new Spliteration().<T>ofObj(mapper), ORDERED, isParallel()).onClose(left::close).onClose(right::close);
+        }
+
+        @Override
+        public DoubleStream mapToDouble(ToDoubleBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return doubleStream(() -> new Spliteration().ofDouble(mapper), ORDERED, isParallel()).onClose(left::close).onClose(right::close);
+        }
+
+        @Override
+        public IntStream mapToInt(ToIntBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return intStream(() -> new Spliteration().ofInt(mapper), ORDERED, isParallel()).onClose(left::close).onClose(right::close);
+        }
+
+        @Override
+        public LongStream mapToLong(ToLongBiFunction<? super K, ? super V> mapper) {
+            requireNonNull(mapper);
+            return longStream(() -> new Spliteration().ofLong(mapper), ORDERED, isParallel()).onClose(left::close).onClose(right::close);
+        }
+
+        @Override
+        public <K2> BiStream<K2, V> mapKeys(Function<? super K, ? extends K2> keyMapper) {
+            return zip(left.map(keyMapper), right);
+        }
+
+        @Override
+        public <V2> BiStream<K, V2> mapValues(Function<? super V, ? extends V2> valueMapper) {
+            return zip(left, right.map(valueMapper));
+        }
+
+        @Override
+        public BiStream<V, K> inverse() {
+            return zip(right, left);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            requireNonNull(action);
+            if (isParallel()) {
+                // The mapped values are discarded; this only lets the pairs be visited in parallel
+                mapToObj((k, v) -> {
+                    action.accept(k, v);
+                    return null;
+                }).forEach(nothing -> {
+                });
+            } else {
+                forEachOrdered(action);
+            }
+        }
+
+        @Override
+        public void forEachOrdered(BiConsumer<? super K, ? super V> action) {
+            requireNonNull(action);
+            new Spliteration().forEach(action);
+        }
+
+        @Override
+        public boolean allMatch(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            if (isParallel()) {
+                return mapToObj(predicate::test).allMatch(Boolean::booleanValue);
+            }
+            return new Spliteration().any(false, predicate); // any false = false
+        }
+
+        @Override
+        public boolean anyMatch(BiPredicate<? super K, ? super V> predicate) {
+            requireNonNull(predicate);
+            if (isParallel()) {
+                return mapToObj(predicate::test).anyMatch(Boolean::booleanValue);
+            }
+            return new Spliteration().any(true, predicate); // any true = true
+        }
+
+        @Override
+        public BiStream<K, V> limit(int maxSize) {
+            return zip(left.limit(maxSize), right.limit(maxSize));
+        }
+
+        @Override
+        public BiStream<K, V> skip(int n) {
+            return zip(left.skip(n), right.skip(n));
+        }
+
+        @Override
+        public <R> R collect(BiCollector<? super K, ? super V, R> collector) {
+            requireNonNull(collector);
+            if (isParallel()) {
+                return mapToObj(BiStream::kv).collect(collector.bisecting(Map.Entry::getKey, Map.Entry::getValue));
+            }
+            return new Spliteration().collectWith(collector);
+        }
+
+        @Override
+        Cursor<K, V> cursor() {
+            Spliteration spliteration = new Spliteration();
+            return new Cursor<K, V>() {
+                @Override
+                boolean advance() {
+                    if (!spliteration.advance()) {
+                        return false;
+                    }
+                    key = spliteration.currentLeft.value;
+                    value = spliteration.currentRight.value;
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        void closeUnderlying() {
+            left.close();
+            right.close();
+        }
+
+        private boolean isParallel() {
+            return left.isParallel() || right.isParallel();
+        }
+
+        private final class Spliteration {
+            private final Temp<K> currentLeft = new Temp<>();
+            private final Temp<V> currentRight = new Temp<>();
+            private final Spliterator<K> leftIt;
+            private final Spliterator<V> rightIt;
+
+            Spliteration() {
+                this(left.spliterator(), right.spliterator());
+            }
+
+            Spliteration(Spliterator<K> leftIt, Spliterator<V> rightIt) {
+                this.leftIt = leftIt;
+                this.rightIt = rightIt;
+            }
+
+            /**
+             * Returns {@code dominatingResult} if {@code predicate} evaluates to
+             * {@code dominatingResult} for any pair, or else returns
+             * {@code !dominatingResult}.
+             */
+            boolean any(boolean dominatingResult, BiPredicate<? super K, ? super V> predicate) {
+                while (advance()) {
+                    if (predicate.test(currentLeft.value, currentRight.value) == dominatingResult) {
+                        return dominatingResult;
+                    }
+                }
+                return !dominatingResult;
+            }
+
+            void forEach(BiConsumer<? super K, ? super V> consumer) {
+                while (advance()) {
+                    consumer.accept(currentLeft.value, currentRight.value);
+                }
+            }
+
+            <T> Spliterator<T> ofObj(BiFunction<? super K, ? super V, ? extends T> mapper) {
+                return new Spliterators.AbstractSpliterator<T>(estimateSize(), characteristics()) {
                     @Override
                     public boolean tryAdvance(Consumer<? super T> consumer) {
                         return advance() && emit(mapper.apply(currentLeft.value, currentRight.value), consumer);
                     }
+
+                    @Override
+                    public Spliterator<T> trySplit() {
+                        Spliteration prefix = Spliteration.this.trySplit();
+                        return prefix == null ? null : prefix.ofObj(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return Spliteration.this.estimateSize();
+                    }
                 };
             }
 
             Spliterator.OfInt ofInt(ToIntBiFunction<? super K, ? super V> mapper) {
-                return new Spliterators.AbstractIntSpliterator(estimateSize(), ORDERED) {
+                return new Spliterators.AbstractIntSpliterator(estimateSize(), characteristics()) {
                     @Override
                     public boolean tryAdvance(IntConsumer consumer) {
                         return advance() && emit(mapper.applyAsInt(currentLeft.value, currentRight.value), consumer);
                     }
+
+                    @Override
+                    public Spliterator.OfInt trySplit() {
+                        Spliteration prefix = Spliteration.this.trySplit();
+                        return prefix == null ? null : prefix.ofInt(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return Spliteration.this.estimateSize();
+                    }
                 };
             }
 
             Spliterator.OfLong ofLong(ToLongBiFunction<? super K, ? super V> mapper) {
-                return new Spliterators.AbstractLongSpliterator(estimateSize(), ORDERED) {
+                return new Spliterators.AbstractLongSpliterator(estimateSize(), characteristics()) {
                     @Override
                     public boolean tryAdvance(LongConsumer consumer) {
                         return advance() && emit(mapper.applyAsLong(currentLeft.value, currentRight.value), consumer);
                     }
+
+                    @Override
+                    public Spliterator.OfLong trySplit() {
+                        Spliteration prefix = Spliteration.this.trySplit();
+                        return prefix == null ? null : prefix.ofLong(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return Spliteration.this.estimateSize();
+                    }
                 };
             }
 
             Spliterator.OfDouble ofDouble(ToDoubleBiFunction<? super K, ? super V> mapper) {
-                return new Spliterators.AbstractDoubleSpliterator(estimateSize(), ORDERED) {
+                return new Spliterators.AbstractDoubleSpliterator(estimateSize(), characteristics()) {
                     @Override
                     public boolean tryAdvance(DoubleConsumer consumer) {
                         return advance() && emit(mapper.applyAsDouble(currentLeft.value, currentRight.value), consumer);
                     }
+
+                    @Override
+                    public Spliterator.OfDouble trySplit() {
+                        Spliteration prefix = Spliteration.this.trySplit();
+                        return prefix == null ? null : prefix.ofDouble(mapper);
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return Spliteration.this.estimateSize();
+                    }
                 };
             }
 
@@ -837,6 +2192,37 @@ public abstract class BiStream<K, V> {
                 return collector.finisher().apply(container);
             }
 
+            /**
+             * Splits off a prefix of both sides with the same number of elements. This is
+             * only possible when both sides know their exact size after splitting; in any
+             * other case the zipped stream runs sequentially.
+             * <p>
+             * Sides of equal length, such as two lists of the same size, split at the same
+             * offset. Otherwise, the shorter prefix is topped up with elements taken from
+             * the front of the remainder of its side, which are buffered.
+             */
+            Spliteration trySplit() {
+                if (!leftIt.hasCharacteristics(SIZED | SUBSIZED) || !rightIt.hasCharacteristics(SIZED | SUBSIZED)) {
+                    return null;
+                }
+                Spliterator<K> leftPrefix = leftIt.trySplit();
+                if (leftPrefix == null) {
+                    return null;
+                }
+                Spliterator<V> rightPrefix = rightIt.trySplit();
+                if (rightPrefix == null) {
+                    rightPrefix = Spliterators.emptySpliterator();
+                }
+                long leftSize = leftPrefix.getExactSizeIfKnown();
+                long rightSize = rightPrefix.getExactSizeIfKnown();
+                if (leftSize < rightSize) {
+                    leftPrefix = append(leftPrefix, leftIt, rightSize - leftSize);
+                } else if (rightSize < leftSize) {
+                    rightPrefix = append(rightPrefix, rightIt, leftSize - rightSize);
+                }
+                return new Spliteration(leftPrefix, rightPrefix);
+            }
+
             private boolean advance() {
                 return leftIt.tryAdvance(currentLeft) && rightIt.tryAdvance(currentRight);
             }
@@ -844,26 +2230,21 @@ public abstract class BiStream<K, V> {
             private long estimateSize() {
                 return Math.min(leftIt.estimateSize(), rightIt.estimateSize());
             }
-        }
 
-        private static boolean emit(int result, IntConsumer consumer) {
-            consumer.accept(result);
-            return true;
-        }
-
-        private static boolean emit(long result, LongConsumer consumer) {
-            consumer.accept(result);
-            return true;
-        }
-
-        private static boolean emit(double result, DoubleConsumer consumer) {
-            consumer.accept(result);
-            return true;
+            private int characteristics() {
+                return ORDERED | (leftIt.characteristics() & rightIt.characteristics() & (SIZED | SUBSIZED));
+            }
         }
 
-        private static <T> boolean emit(T result, Consumer<? super T> consumer) {
-            consumer.accept(result);
-            return true;
+        /**
+         * Returns a spliterator over the elements of {@code prefix} followed by up to
+         * {@code count} elements taken from the front of {@code suffix}.
+         */
+        private static <T> Spliterator<T> append(Spliterator<T> prefix, Spliterator<T> suffix, long count) {
+            List<T> buffer = new ArrayList<>((int) Math.min(count, suffix.estimateSize()));
+            for (long i = 0; i < count && suffix.tryAdvance(buffer::add); i++) {
+            }
+            return Stream.concat(stream(prefix, false), buffer.stream()).spliterator();
         }
 
         private static final class Temp<T> implements Consumer<T> {
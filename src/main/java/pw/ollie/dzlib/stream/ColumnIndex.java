@@ -0,0 +1,164 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * An index over one column of a columnar {@link BiCollection}, mapping each distinct value in
+ * that column to the values it is paired with in the other column, in insertion order.
+ * <p>
+ * Distinct keys are found with an open-addressing table of group ids. The positions of every
+ * pair are then laid out contiguously by group, so a lookup yields a range of positions into the
+ * existing columns rather than copying any of the values.
+ */
+final class ColumnIndex {
+    private final Object[] keys;
+    private final int[] table;
+    private final int[] groupFirst;
+    private final int[] groupStart;
+    private final int[] order;
+
+    private ColumnIndex(Object[] keys, int[] table, int[] groupFirst, int[] groupStart, int[] order) {
+        this.keys = keys;
+        this.table = table;
+        this.groupFirst = groupFirst;
+        this.groupStart = groupStart;
+        this.order = order;
+    }
+
+    /**
+     * Builds an index over {@code keys}, which must not be modified afterwards.
+     *
+     * @param keys the column to index
+     * @return the built index
+     */
+    static ColumnIndex build(Object[] keys) {
+        int n = keys.length;
+        int[] table = new int[tableSize(n)];
+        int mask = table.length - 1;
+        int[] groupOf = new int[n];
+        int[] groupFirst = new int[n];
+        int[] counts = new int[n + 1];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            Object key = keys[i];
+            int slot = hash(key) & mask;
+            int group;
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    group = groups++;
+                    groupFirst[group] = i;
+                    table[slot] = group + 1;
+                    break;
+                }
+                if (Objects.equals(keys[groupFirst[entry - 1]], key)) {
+                    group = entry - 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            groupOf[i] = group;
+            counts[group + 1]++;
+        }
+
+        // prefix sums give each group's start in order, and filling forwards keeps insertion order
+        for (int g = 0; g < groups; g++) {
+            counts[g + 1] += counts[g];
+        }
+        int[] groupStart = Arrays.copyOf(counts, groups + 1);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[counts[groupOf[i]]++] = i;
+        }
+        return new ColumnIndex(keys, table, Arrays.copyOf(groupFirst, groups), groupStart, order);
+    }
+
+    /**
+     * Returns a view of the values in {@code other} paired with {@code key} in the indexed column.
+     *
+     * @param key   the value to look up in the indexed column
+     * @param other the other column
+     * @param <T>   the type of value in the other column
+     * @return an unmodifiable view of the matching values, in insertion order
+     */
+    <T> List<T> lookup(Object key, Object[] other) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return Collections.emptyList();
+            }
+            int group = entry - 1;
+            if (Objects.equals(keys[groupFirst[group]], key)) {
+                return new Matches<>(other, order, groupStart[group], groupStart[group + 1]);
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int tableSize(int n) {
+        // keep the load factor at or below one half
+        int size = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+        return Math.max(size, 2);
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Matches<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] values;
+        private final int[] order;
+        private final int from;
+        private final int to;
+
+        Matches(Object[] values, int[] order, int from, int to) {
+            this.values = values;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, to - from);
+            return (T) values[order[from + index]];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
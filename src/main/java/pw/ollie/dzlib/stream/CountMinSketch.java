@@ -0,0 +1,210 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Estimates how many times each element was added to it, in a fixed {@code depth * width}
+ * counters. An estimate is never below the true count, and with probability
+ * {@code 1 - e^-depth} exceeds it by at most {@code e / width} of the total count.
+ * <p>
+ * Each element is hashed once to 64 bits, and its counter in each row is derived from the two
+ * halves of the hash.
+ * <p>
+ * Sketches of the same dimensions can be {@link #merge merged}, including after being
+ * {@link #write written} out and {@link #read read} back on another node, giving the sketch of
+ * all the elements added to either. Sketches should be created with the same hash on every
+ * node.
+ *
+ * @see StreamUtil#frequencySketch(double, double)
+ */
+public final class CountMinSketch {
+    private static final int FORMAT = 1;
+
+    private final int depth;
+    private final int width;
+    private final long[] counts;
+    private long total;
+
+    /**
+     * Creates an empty sketch with {@code depth} rows of {@code width} counters.
+     *
+     * @throws IllegalArgumentException if {@code depth} or {@code width} isn't positive
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(depth + "x" + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counts = new long[depth * width];
+    }
+
+    /**
+     * Creates an empty sketch whose estimates exceed the true count by at most
+     * {@code epsilon} of the total count, with probability {@code confidence}.
+     *
+     * @throws IllegalArgumentException if {@code epsilon} isn't positive, or
+     *                                  {@code confidence} isn't between 0 and 1 exclusive
+     */
+    public static CountMinSketch withErrorBounds(double epsilon, double confidence) {
+        if (!(epsilon > 0)) throw new IllegalArgumentException(Double.toString(epsilon));
+        if (!(confidence > 0 && confidence < 1)) throw new IllegalArgumentException(Double.toString(confidence));
+        int width = (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.E / epsilon));
+        int depth = (int) Math.ceil(-Math.log(1 - confidence));
+        return new CountMinSketch(depth, width);
+    }
+
+    /**
+     * Returns the number of rows of this sketch.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of counters in each row of this sketch.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Returns the total count of the elements added to this sketch.
+     */
+    public long totalCount() {
+        return total;
+    }
+
+    /**
+     * Adds {@code element} to this sketch once.
+     */
+    public void add(Object element) {
+        addHash(SketchHash.hash(element), 1);
+    }
+
+    /**
+     * Adds {@code element} to this sketch {@code count} times.
+     *
+     * @throws IllegalArgumentException if {@code count < 0}
+     */
+    public void add(Object element, long count) {
+        addHash(SketchHash.hash(element), count);
+    }
+
+    /**
+     * Adds an element with the 64-bit hash {@code hash} to this sketch {@code count} times.
+     *
+     * @throws IllegalArgumentException if {@code count < 0}
+     */
+    public void addHash(long hash, long count) {
+        if (count < 0) throw new IllegalArgumentException(Long.toString(count));
+        for (int row = 0; row < depth; row++) {
+            counts[row * width + column(hash, row)] += count;
+        }
+        total += count;
+    }
+
+    /**
+     * Returns the estimated number of times {@code element} was added to this sketch.
+     */
+    public long estimate(Object element) {
+        return estimateHash(SketchHash.hash(element));
+    }
+
+    /**
+     * Returns the estimated number of times an element with the 64-bit hash {@code hash} was
+     * added to this sketch.
+     */
+    public long estimateHash(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Merges {@code that} into this sketch, which then estimates the counts of the elements
+     * added to either.
+     *
+     * @return this sketch
+     * @throws IllegalArgumentException if the sketches have different dimensions
+     */
+    public CountMinSketch merge(CountMinSketch that) {
+        if (that.depth != depth || that.width != width) {
+            throw new IllegalArgumentException("cannot merge " + that.depth + "x" + that.width + " into " + depth + "x" + width);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += that.counts[i];
+        }
+        total += that.total;
+        return this;
+    }
+
+    /**
+     * Writes this sketch to {@code out}.
+     *
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT);
+        out.writeInt(depth);
+        out.writeInt(width);
+        out.writeLong(total);
+        for (long count : counts) {
+            out.writeLong(count);
+        }
+    }
+
+    /**
+     * Reads a sketch written by {@link #write} from {@code in}.
+     *
+     * @throws IOException if reading fails, or the input isn't a sketch
+     */
+    public static CountMinSketch read(DataInput in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) throw new IOException("unknown CountMinSketch format " + format);
+        int depth = in.readInt();
+        int width = in.readInt();
+        if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE) {
+            throw new IOException("invalid CountMinSketch dimensions " + depth + "x" + width);
+        }
+        CountMinSketch sketch = new CountMinSketch(depth, width);
+        sketch.total = in.readLong();
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = in.readLong();
+        }
+        return sketch;
+    }
+
+    private int column(long hash, int row) {
+        // Kirsch and Mitzenmacher: the rows' hashes are h1 + row * h2
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes elements to and reads them back from a binary stream, for example so that a
+ * {@link SpaceSaving} sketch can be sent to another node and merged there.
+ *
+ * @param <T> the type of element
+ * @see PairCodec
+ */
+public interface ElementCodec<T> {
+    /**
+     * Writes {@code element} to {@code out}.
+     *
+     * @param element the element to write
+     * @param out     the output to write to
+     * @throws IOException if writing fails
+     */
+    void write(T element, DataOutput out) throws IOException;
+
+    /**
+     * Reads the next element from {@code in}.
+     *
+     * @param in the input to read from
+     * @return the element which was read
+     * @throws IOException if reading fails
+     */
+    T read(DataInput in) throws IOException;
+}
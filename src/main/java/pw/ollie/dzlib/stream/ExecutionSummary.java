@@ -0,0 +1,137 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of running a checked function or consumer over the elements of a stream in
+ * parallel, with {@link StreamUtil#forEachParallel} or {@link StreamUtil#mapParallel}.
+ * <p>
+ * Up to {@value #MAX_RECORDED_FAILURES} failures are kept, in the order they happened; further
+ * failures are only counted.
+ *
+ * @param <R> the type of result
+ * @param <E> the type of checked exception the function or consumer may throw
+ */
+public final class ExecutionSummary<R, E extends Throwable> {
+    /**
+     * The maximum number of failures kept by a summary.
+     */
+    public static final int MAX_RECORDED_FAILURES = 64;
+
+    private final List<R> results;
+    private final long succeeded;
+    private final long failed;
+    private final long cancelled;
+    private final List<Throwable> failures;
+
+    ExecutionSummary(List<R> results, long succeeded, long failed, long cancelled, List<Throwable> failures) {
+        this.results = Collections.unmodifiableList(results);
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.cancelled = cancelled;
+        this.failures = Collections.unmodifiableList(failures);
+        for (Throwable failure : failures.subList(Math.min(1, failures.size()), failures.size())) {
+            Throwable first = failures.get(0);
+            // the same exception may have been thrown for more than one element
+            if (failure != first) {
+                first.addSuppressed(failure);
+            }
+        }
+    }
+
+    /**
+     * Returns the results for the elements which succeeded, in encounter order. This is empty
+     * for {@link StreamUtil#forEachParallel}.
+     */
+    public List<R> results() {
+        return results;
+    }
+
+    /**
+     * Returns the number of elements which succeeded.
+     */
+    public long succeeded() {
+        return succeeded;
+    }
+
+    /**
+     * Returns the number of elements which failed.
+     */
+    public long failed() {
+        return failed;
+    }
+
+    /**
+     * Returns the number of elements which were cancelled, before or while running, after an
+     * earlier failure when failing fast. Elements which were never read from the stream aren't
+     * counted.
+     */
+    public long cancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the recorded failures, in the order they happened. The first has the others
+     * added to it as suppressed exceptions.
+     */
+    public List<Throwable> failures() {
+        return failures;
+    }
+
+    /**
+     * Returns whether every element read from the stream succeeded.
+     */
+    public boolean isSuccessful() {
+        return failed == 0 && cancelled == 0;
+    }
+
+    /**
+     * Throws the first failure, with the other recorded failures suppressed, if there were any
+     * failures.
+     *
+     * @return this summary, if there were no failures
+     * @throws E the first failure
+     */
+    @SuppressWarnings("unchecked")
+    public ExecutionSummary<R, E> throwIfFailed() throws E {
+        if (failures.isEmpty()) {
+            return this;
+        }
+        Throwable first = failures.get(0);
+        if (first instanceof RuntimeException) {
+            throw (RuntimeException) first;
+        } else if (first instanceof Error) {
+            throw (Error) first;
+        }
+        throw (E) first; // the function or consumer can only throw unchecked exceptions or E
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionSummary[succeeded=" + succeeded + ", failed=" + failed + ", cancelled=" + cancelled + "]";
+    }
+}
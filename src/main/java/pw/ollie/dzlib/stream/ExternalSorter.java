@@ -0,0 +1,265 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.*;
+
+/**
+ * Sorts a stream of pairs which may not fit in memory. The input is read into runs of a
+ * bounded size; each full run is sorted and written to a temporary file in the background
+ * while the next run is read. The runs are then lazily merged back together with a
+ * {@link LoserTree}, and the files are deleted once the merge is exhausted or closed.
+ * <p>
+ * At most {@link #MAX_MERGE_FAN_IN} runs are read at once, bounding the number of open
+ * files. If there are more runs than that, consecutive groups of runs are first merged
+ * into longer runs, in as many passes as needed.
+ * <p>
+ * At most {@code maxInMemory} pairs are held in memory while the runs are being built. The
+ * sort is stable.
+ */
+final class ExternalSorter<K, V> {
+    /**
+     * The maximum number of runs merged at once.
+     */
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private final Comparator<? super Map.Entry<K, V>> comparator;
+    private final PairCodec<K, V> codec;
+    private final int runSize;
+    private final int maxPendingRuns;
+
+    private final List<Run> runs = new ArrayList<>();
+    private final Deque<CompletableFuture<?>> pending = new ArrayDeque<>();
+
+    ExternalSorter(Comparator<? super Map.Entry<K, V>> comparator, PairCodec<K, V> codec, int maxInMemory) {
+        if (maxInMemory < 2) {
+            throw new IllegalArgumentException("maxInMemory must be at least 2");
+        }
+        this.comparator = comparator;
+        this.codec = codec;
+        // one run being read, and up to maxPendingRuns being sorted and written
+        this.maxPendingRuns = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), maxInMemory / 2 - 1));
+        this.runSize = maxInMemory / (maxPendingRuns + 1);
+    }
+
+    /**
+     * Returns a lazy stream of the pairs in {@code entries}, sorted. Nothing is read from
+     * {@code entries} until the returned stream is.
+     */
+    static <K, V> Stream<Map.Entry<K, V>> sorted(Stream<? extends Map.Entry<? extends K, ? extends V>> entries,
+                                                 Comparator<? super Map.Entry<K, V>> comparator, PairCodec<K, V> codec, int maxInMemory) {
+        ExternalSorter<K, V> sorter = new ExternalSorter<>(comparator, codec, maxInMemory);
+        return stream(() -> sorter.sort(entries.iterator()), Spliterator.ORDERED, false)
+                .onClose(entries::close)
+                .onClose(sorter::deleteRuns);
+    }
+
+    private Spliterator<Map.Entry<K, V>> sort(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        List<Map.Entry<K, V>> buffer = new ArrayList<>();
+        while (entries.hasNext()) {
+            Map.Entry<? extends K, ? extends V> entry = entries.next();
+            buffer.add(BiStream.kv(entry.getKey(), entry.getValue()));
+            if (buffer.size() == runSize) {
+                spill(buffer);
+                buffer = new ArrayList<>();
+            }
+        }
+        buffer.sort(comparator);
+        if (runs.isEmpty() && pending.isEmpty()) {
+            return buffer.spliterator();
+        }
+        awaitPending(0);
+
+        // leave room for the buffer in the final merge
+        while (runs.size() >= MAX_MERGE_FAN_IN) {
+            mergePass();
+        }
+        List<Iterator<Map.Entry<K, V>>> sources = open(runs);
+        sources.add(buffer.iterator()); // read last, so it goes last among equal pairs
+        return Spliterators.spliteratorUnknownSize(new LoserTree<>(comparator, sources), Spliterator.ORDERED);
+    }
+
+    private void spill(List<Map.Entry<K, V>> buffer) {
+        awaitPending(maxPendingRuns - 1);
+        Run run = new Run();
+        runs.add(run);
+        pending.add(CompletableFuture.runAsync(() -> {
+            buffer.sort(comparator);
+            run.write(buffer.iterator());
+        }));
+    }
+
+    /**
+     * Merges each group of up to {@link #MAX_MERGE_FAN_IN} consecutive runs into one run.
+     * Groups are kept in order, so the merge stays stable.
+     */
+    private void mergePass() {
+        List<Run> inputs = new ArrayList<>(runs);
+        List<Run> outputs = new ArrayList<>();
+        for (int from = 0; from < inputs.size(); from += MAX_MERGE_FAN_IN) {
+            List<Run> group = inputs.subList(from, Math.min(from + MAX_MERGE_FAN_IN, inputs.size()));
+            if (group.size() == 1) {
+                outputs.add(group.get(0));
+                continue;
+            }
+            Run merged = new Run();
+            runs.add(merged); // registered before it is written, so deleteRuns() always sees it
+            merged.write(new LoserTree<>(comparator, open(group)));
+            group.forEach(Run::delete);
+            outputs.add(merged);
+        }
+        runs.clear();
+        runs.addAll(outputs);
+    }
+
+    private List<Iterator<Map.Entry<K, V>>> open(List<Run> runs) {
+        List<Iterator<Map.Entry<K, V>>> sources = new ArrayList<>(runs.size() + 1);
+        for (Run run : runs) {
+            sources.add(run.open());
+        }
+        return sources;
+    }
+
+    private void awaitPending(int maxRemaining) {
+        while (pending.size() > maxRemaining) {
+            try {
+                pending.poll().join();
+            } catch (CompletionException e) {
+                deleteRuns();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void deleteRuns() {
+        pending.forEach(future -> future.cancel(false));
+        for (Run run : runs) {
+            run.delete();
+        }
+    }
+
+    /**
+     * A sorted run which has been written to a temporary file.
+     */
+    private final class Run {
+        private Path file;
+        private int size;
+        private DataInputStream in;
+        private boolean deleted;
+
+        synchronized void write(Iterator<Map.Entry<K, V>> entries) {
+            if (deleted) {
+                // the sort was closed before this run was written
+                return;
+            }
+            try {
+                file = Files.createTempFile("dzlib-sort", ".run");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                    while (entries.hasNext()) {
+                        Map.Entry<K, V> entry = entries.next();
+                        codec.write(entry.getKey(), entry.getValue(), out);
+                        size++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Iterator<Map.Entry<K, V>> open() {
+            try {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Iterator<Map.Entry<K, V>>() {
+                private int remaining = size;
+
+                @Override
+                public boolean hasNext() {
+                    if (remaining == 0) {
+                        delete();
+                    }
+                    return remaining > 0;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    remaining--;
+                    try {
+                        K key = codec.readKey(in);
+                        return BiStream.kv(key, codec.readValue(in));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+
+        synchronized void delete() {
+            deleted = true;
+            try {
+                if (in != null) {
+                    in.close();
+                    in = null;
+                }
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                    file = null;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Estimates the number of distinct elements added to it, in a fixed {@code 2^precision} bytes
+ * of memory, with a relative standard error of about {@code 1.04 / sqrt(2^precision)}.
+ * <p>
+ * Like HyperLogLog++, elements are hashed to 64 bits, so the estimate doesn't saturate at large
+ * cardinalities. Rather than HyperLogLog++'s empirical bias correction, the estimate uses Ertl's
+ * improved estimator, which is unbiased across the whole range from a handful of elements up.
+ * <p>
+ * Sketches of the same precision can be {@link #merge merged}, including after being
+ * {@link #write written} out and {@link #read read} back on another node, giving the sketch of
+ * the union of their elements. Sketches should be created with the same hash on every node.
+ *
+ * @see StreamUtil#distinctCountSketch(int)
+ */
+public final class HyperLogLog {
+    private static final int FORMAT = 1;
+    private static final double ALPHA_INFINITY = 0.5 / Math.log(2);
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch with {@code 2^precision} registers.
+     *
+     * @param precision the number of bits of each hash used to pick a register
+     * @throws IllegalArgumentException if {@code precision} isn't between 4 and 18
+     */
+    public HyperLogLog(int precision) {
+        checkPrecision(precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Returns the precision of this sketch.
+     */
+    public int precision() {
+        return precision;
+    }
+
+    /**
+     * Adds {@code element} to this sketch.
+     */
+    public void add(Object element) {
+        addHash(SketchHash.hash(element));
+    }
+
+    /**
+     * Adds an element with the 64-bit hash {@code hash} to this sketch.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the marker bit caps the rank at 65 - precision when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merges {@code that} into this sketch, which then estimates the number of distinct elements
+     * added to either.
+     *
+     * @return this sketch
+     * @throws IllegalArgumentException if the sketches have different precisions
+     */
+    public HyperLogLog merge(HyperLogLog that) {
+        if (that.precision != precision) {
+            throw new IllegalArgumentException("cannot merge precision " + that.precision + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (that.registers[i] > registers[i]) {
+                registers[i] = that.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the estimated number of distinct elements added to this sketch.
+     */
+    public long estimate() {
+        int q = 64 - precision;
+        int m = registers.length;
+        int[] histogram = new int[q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(ALPHA_INFINITY * m * m / z);
+    }
+
+    /**
+     * Writes this sketch to {@code out}.
+     *
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT);
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    /**
+     * Reads a sketch written by {@link #write} from {@code in}.
+     *
+     * @throws IOException if reading fails, or the input isn't a sketch
+     */
+    public static HyperLogLog read(DataInput in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) throw new IOException("unknown HyperLogLog format " + format);
+        int precision = in.readUnsignedByte();
+        if (precision < 4 || precision > 18) throw new IOException("invalid HyperLogLog precision " + precision);
+        HyperLogLog sketch = new HyperLogLog(precision);
+        in.readFully(sketch.registers);
+        for (byte register : sketch.registers) {
+            if (register < 0 || register > 65 - precision) throw new IOException("invalid HyperLogLog register " + register);
+        }
+        return sketch;
+    }
+
+    static void checkPrecision(int precision) {
+        if (precision < 4 || precision > 18) throw new IllegalArgumentException(Integer.toString(precision));
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import pw.ollie.dzlib.function.IntObjConsumer;
+import pw.ollie.dzlib.function.IntObjFunction;
+import pw.ollie.dzlib.function.IntObjPredicate;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.*;
+
+/**
+ * A {@link BiStream}-like object for pairs of an {@code int} key and an object value, which never boxes the keys.
+ * <p>
+ * Like {@code BiStream}, the stream operates on a generic element type using two functions to extract the key and
+ * the value from each element, and it is strictly guaranteed that each function is invoked exactly once for any
+ * single element. Operations such as {@link #mapKeys(IntUnaryOperator)}, {@link #mapValues(Function)},
+ * {@link #keys()} and {@link #forEach} compose or invoke those functions directly; operations which need both the
+ * key and the value more than once, such as {@link #filter}, degeneralize the stream into a stream of small
+ * primitive-keyed entries, which costs a single allocation per pair rather than an {@code Integer} and a
+ * {@code Map.Entry}.
+ * <p>
+ * Use {@link #boxed()} to access operations only offered by {@code BiStream}.
+ *
+ * @param <V> the value type
+ */
+public final class IntObjBiStream<V> {
+    private final Stream<?> underlying;
+    private final ToIntFunction<Object> toKey;
+    private final Function<Object, ? extends V> toValue;
+    private final boolean entries;
+
+    @SuppressWarnings("unchecked")
+    private <E> IntObjBiStream(Stream<E> underlying, ToIntFunction<? super E> toKey, Function<? super E, ? extends V> toValue, boolean entries) {
+        this.underlying = requireNonNull(underlying);
+        this.toKey = (ToIntFunction<Object>) requireNonNull(toKey);
+        this.toValue = (Function<Object, ? extends V>) requireNonNull(toValue);
+        this.entries = entries;
+    }
+
+    /**
+     * Returns an empty {@code IntObjBiStream}.
+     */
+    public static <V> IntObjBiStream<V> empty() {
+        return fromEntries(Stream.empty());
+    }
+
+    /**
+     * Returns an {@code IntObjBiStream} of a single pair containing {@code key} and {@code value}.
+     */
+    public static <V> IntObjBiStream<V> of(int key, V value) {
+        return fromEntries(Stream.of(new IntEntry<>(key, value)));
+    }
+
+    /**
+     * Returns an {@code IntObjBiStream} where each element in {@code values} is keyed by its corresponding 0-based
+     * index. Unlike {@link BiStream#indexed}, no index is boxed.
+     * <p>
+     * The returned stream is parallel if {@code values} is, and splits whenever the spliterator of {@code values}
+     * is {@link Spliterator#SUBSIZED}.
+     */
+    public static <V> IntObjBiStream<V> indexed(Stream<V> values) {
+        requireNonNull(values);
+        Stream<IntEntry<V>> indexed = StreamSupport.stream(new IndexingSpliterator<>(values.spliterator(), 0), values.isParallel());
+        return fromEntries(indexed.onClose(values::close));
+    }
+
+    /**
+     * Returns an {@code IntObjBiStream} of the elements from {@code stream}, each transformed to a pair of values
+     * with {@code toKey} and {@code toValue}.
+     */
+    public static <T, V> IntObjBiStream<V> from(Stream<T> stream, ToIntFunction<? super T> toKey, Function<? super T, ? extends V> toValue) {
+        return new IntObjBiStream<>(stream, toKey, toValue, false);
+    }
+
+    /**
+     * Returns an {@code IntObjBiStream} of the keys from {@code keys}, each paired with the value produced by
+     * applying {@code toValue} to it.
+     */
+    public static <V> IntObjBiStream<V> from(IntStream keys, IntFunction<? extends V> toValue) {
+        requireNonNull(toValue);
+        return fromEntries(keys.mapToObj(key -> new IntEntry<>(key, toValue.apply(key))));
+    }
+
+    private static <V> IntObjBiStream<V> fromEntries(Stream<IntEntry<V>> entryStream) {
+        return new IntObjBiStream<>(entryStream, IntEntry::getKey, IntEntry::getValue, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Stream<IntEntry<V>> mapToEntry() {
+        if (entries) { // Reuse the same entries. Don't allocate new ones
+            return (Stream<IntEntry<V>>) underlying;
+        }
+        return underlying.map(e -> new IntEntry<>(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns an equivalent parallel stream.
+     */
+    public IntObjBiStream<V> parallel() {
+        return new IntObjBiStream<>(underlying.parallel(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns an equivalent sequential stream.
+     */
+    public IntObjBiStream<V> sequential() {
+        return new IntObjBiStream<>(underlying.sequential(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of the results of applying {@code mapper} to each pair in this stream.
+     */
+    public <T> Stream<T> mapToObj(IntObjFunction<? super V, ? extends T> mapper) {
+        requireNonNull(mapper);
+        return underlying.map(e -> mapper.apply(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Maps each key to another {@code int} key.
+     */
+    public IntObjBiStream<V> mapKeys(IntUnaryOperator keyMapper) {
+        requireNonNull(keyMapper);
+        return new IntObjBiStream<>(underlying, e -> keyMapper.applyAsInt(toKey.applyAsInt(e)), toValue, false);
+    }
+
+    /**
+     * Maps each value to another value of type {@code V2}.
+     */
+    public <V2> IntObjBiStream<V2> mapValues(Function<? super V, ? extends V2> valueMapper) {
+        requireNonNull(valueMapper);
+        return new IntObjBiStream<>(underlying, toKey, toValue.andThen(valueMapper), false);
+    }
+
+    /**
+     * Maps each pair to a new value of type {@code V2}, keeping the key.
+     */
+    public <V2> IntObjBiStream<V2> mapValues(IntObjFunction<? super V, ? extends V2> valueMapper) {
+        requireNonNull(valueMapper);
+        return fromEntries(underlying.map(e -> {
+            int key = toKey.applyAsInt(e);
+            return new IntEntry<>(key, valueMapper.apply(key, toValue.apply(e)));
+        }));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the pairs in this stream with boxed keys.
+     */
+    public BiStream<Integer, V> boxed() {
+        return BiStream.from(underlying, toKey::applyAsInt, toValue);
+    }
+
+    /**
+     * Returns an {@code IntStream} consisting of only the keys from each pair in this stream.
+     */
+    public IntStream keys() {
+        return underlying.mapToInt(toKey);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of only the values from each pair in this stream.
+     */
+    public Stream<V> values() {
+        return underlying.map(toValue);
+    }
+
+    /**
+     * Filter this stream to only pairs matching {@code predicate}.
+     */
+    public IntObjBiStream<V> filter(IntObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return fromEntries(mapToEntry().filter(e -> predicate.test(e.key, e.value)));
+    }
+
+    /**
+     * Filter this stream to only pairs whose key matches {@code predicate}.
+     */
+    public IntObjBiStream<V> filterKeys(IntPredicate predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(k));
+    }
+
+    /**
+     * Filter this stream to only pairs whose value matches {@code predicate}.
+     */
+    public IntObjBiStream<V> filterValues(Predicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(v));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs of this stream, additionally invoking {@code action} on each pair as
+     * pairs are consumed from the resulting stream.
+     */
+    public IntObjBiStream<V> peek(IntObjConsumer<? super V> action) {
+        requireNonNull(action);
+        return fromEntries(mapToEntry().peek(e -> action.accept(e.key, e.value)));
+    }
+
+    /**
+     * Returns a stream consisting of only the first {@code maxSize} pairs of this stream.
+     */
+    public IntObjBiStream<V> limit(long maxSize) {
+        return new IntObjBiStream<>(underlying.limit(maxSize), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the remaining pairs from this stream, after discarding the first {@code n}
+     * pairs.
+     */
+    public IntObjBiStream<V> skip(long n) {
+        return new IntObjBiStream<>(underlying.skip(n), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in ascending order of their keys.
+     */
+    public IntObjBiStream<V> sortedByKeys() {
+        return fromEntries(mapToEntry().sorted(Comparator.comparingInt(IntEntry::getKey)));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in the order produced by applying
+     * {@code comparator} on the values of each pair.
+     */
+    public IntObjBiStream<V> sortedByValues(Comparator<? super V> comparator) {
+        requireNonNull(comparator);
+        return fromEntries(mapToEntry().sorted(Comparator.comparing(IntEntry::getValue, comparator)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream.
+     */
+    public void forEach(IntObjConsumer<? super V> action) {
+        requireNonNull(action);
+        underlying.forEach(e -> action.accept(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream, in order.
+     */
+    public void forEachOrdered(IntObjConsumer<? super V> action) {
+        requireNonNull(action);
+        underlying.forEachOrdered(e -> action.accept(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if all pairs in this stream match {@code predicate}.
+     */
+    public boolean allMatch(IntObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return underlying.allMatch(e -> predicate.test(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if any pair in this stream matches {@code predicate}.
+     */
+    public boolean anyMatch(IntObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return underlying.anyMatch(e -> predicate.test(toKey.applyAsInt(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if no pairs in this stream match {@code predicate}.
+     */
+    public boolean noneMatch(IntObjPredicate<? super V> predicate) {
+        return !anyMatch(predicate);
+    }
+
+    /**
+     * Returns the count of pairs in this stream.
+     */
+    public long count() {
+        return underlying.count();
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TIntObjectMap}. Duplicate keys cause
+     * {@link IllegalArgumentException}.
+     */
+    public TIntObjectMap<V> toMap() {
+        return toMap((a, b) -> {
+            throw new IllegalArgumentException("Duplicate values encountered");
+        });
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TIntObjectMap}, using {@code valueMerger} to merge values of
+     * duplicate keys.
+     */
+    public TIntObjectMap<V> toMap(BinaryOperator<V> valueMerger) {
+        requireNonNull(valueMerger);
+        return underlying.collect(TIntObjectHashMap::new,
+                (map, e) -> merge(map, toKey.applyAsInt(e), toValue.apply(e), valueMerger),
+                (left, right) -> right.forEachEntry((key, value) -> {
+                    merge(left, key, value, valueMerger);
+                    return true;
+                }));
+    }
+
+    private static <V> void merge(TIntObjectMap<V> map, int key, V value, BinaryOperator<V> valueMerger) {
+        if (map.containsKey(key)) {
+            map.put(key, valueMerger.apply(map.get(key), value));
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    private static final class IntEntry<V> {
+        private final int key;
+        private final V value;
+
+        IntEntry(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        int getKey() {
+            return key;
+        }
+
+        V getValue() {
+            return value;
+        }
+    }
+
+    private static final class IndexingSpliterator<V> implements Spliterator<IntEntry<V>> {
+        private final Spliterator<V> values;
+
+        private int index;
+
+        IndexingSpliterator(Spliterator<V> values, int index) {
+            this.values = requireNonNull(values);
+            this.index = index;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super IntEntry<V>> action) {
+            requireNonNull(action);
+            return values.tryAdvance(v -> action.accept(new IntEntry<>(index++, v)));
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super IntEntry<V>> action) {
+            requireNonNull(action);
+            values.forEachRemaining(v -> action.accept(new IntEntry<>(index++, v)));
+        }
+
+        @Override
+        public Spliterator<IntEntry<V>> trySplit() {
+            // Only split when the prefix size is exact, otherwise the indices of the suffix would be unknown
+            if (!values.hasCharacteristics(SUBSIZED)) {
+                return null;
+            }
+            Spliterator<V> prefix = values.trySplit();
+            if (prefix == null) {
+                return null;
+            }
+            Spliterator<IntEntry<V>> result = new IndexingSpliterator<>(prefix, index);
+            index += (int) prefix.getExactSizeIfKnown();
+            return result;
+        }
+
+        @Override
+        public long estimateSize() {
+            return values.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return values.characteristics() & (ORDERED | SIZED | SUBSIZED) | NONNULL;
+        }
+    }
+}
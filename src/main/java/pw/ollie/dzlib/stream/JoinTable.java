@@ -0,0 +1,161 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.*;
+
+/**
+ * The hash table built from one side of a {@link BiStream} join, mapping each key to the
+ * values it was paired with, in encounter order.
+ * <p>
+ * The table is split into partitions by key hash. When built in parallel, the pairs are
+ * first gathered into per-partition buckets, then every partition is built concurrently.
+ */
+final class JoinTable<K, V> {
+    private final List<Map<K, List<V>>> partitions;
+
+    private JoinTable(List<Map<K, List<V>>> partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Builds a table of the pairs in {@code entries}.
+     *
+     * @param entries  the pairs to build the table from
+     * @param parallel whether to build the table in parallel
+     * @param <K>      the type of key
+     * @param <V>      the type of value
+     * @return the built table
+     */
+    static <K, V> JoinTable<K, V> build(Spliterator<? extends Map.Entry<? extends K, ? extends V>> entries, boolean parallel) {
+        return build(entries, parallel, partitionCount(parallel));
+    }
+
+    /**
+     * Builds a table of the pairs in {@code entries}, partitioned in the same way as
+     * {@code like}, so that partition {@code i} of each table holds the same range of
+     * key hashes.
+     */
+    static <K, V> JoinTable<K, V> buildLike(JoinTable<?, ?> like, Spliterator<? extends Map.Entry<? extends K, ? extends V>> entries, boolean parallel) {
+        return build(entries, parallel, like.partitions.size());
+    }
+
+    /**
+     * Returns the values paired with {@code key}, or null if there are none.
+     */
+    List<V> get(Object key) {
+        return partitions.get(partition(key, partitions.size())).get(key);
+    }
+
+    /**
+     * Returns the values paired with {@code key}, or an empty list if there are none.
+     */
+    List<V> getOrEmpty(Object key) {
+        List<V> values = get(key);
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    int partitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Returns a stream of the keys in partition {@code index}.
+     */
+    Stream<K> keys(int index) {
+        return partitions.get(index).keySet().stream();
+    }
+
+    /**
+     * Returns whether partition {@code index} contains {@code key}.
+     */
+    boolean containsKey(int index, Object key) {
+        return partitions.get(index).containsKey(key);
+    }
+
+    private static <K, V> JoinTable<K, V> build(Spliterator<? extends Map.Entry<? extends K, ? extends V>> entries, boolean parallel, int partitionCount) {
+        if (partitionCount == 1) {
+            Map<K, List<V>> partition = new HashMap<>();
+            entries.forEachRemaining(entry -> add(partition, entry));
+            return new JoinTable<>(Collections.singletonList(partition));
+        }
+
+        List<List<Map.Entry<? extends K, ? extends V>>> buckets = stream(entries, parallel).collect(
+                () -> newBuckets(partitionCount),
+                (result, entry) -> result.get(partition(entry.getKey(), partitionCount)).add(entry),
+                (left, right) -> {
+                    for (int i = 0; i < partitionCount; i++) {
+                        left.get(i).addAll(right.get(i));
+                    }
+                });
+        // each index is only written by one task, so the list itself needs no synchronization
+        List<Map<K, List<V>>> partitions = new ArrayList<>(Collections.nCopies(partitionCount, null));
+        IntStream indices = IntStream.range(0, partitionCount);
+        (parallel ? indices.parallel() : indices).forEach(i -> {
+            Map<K, List<V>> partition = new HashMap<>();
+            buckets.get(i).forEach(entry -> add(partition, entry));
+            buckets.set(i, null);
+            partitions.set(i, partition);
+        });
+        return new JoinTable<>(partitions);
+    }
+
+    private static <K, V> void add(Map<K, List<V>> partition, Map.Entry<? extends K, ? extends V> entry) {
+        partition.computeIfAbsent(entry.getKey(), k -> new ArrayList<>(1)).add(entry.getValue());
+    }
+
+    private static <K, V> List<List<Map.Entry<? extends K, ? extends V>>> newBuckets(int count) {
+        List<List<Map.Entry<? extends K, ? extends V>>> buckets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        return buckets;
+    }
+
+    private static int partitionCount(boolean parallel) {
+        if (!parallel) {
+            return 1;
+        }
+        // a few partitions per worker, rounded up to a power of two
+        int target = ForkJoinPool.getCommonPoolParallelism() * 4;
+        return Integer.highestOneBit(Math.max(target - 1, 1)) << 1;
+    }
+
+    private static int partition(Object key, int partitionCount) {
+        // use different bits from those HashMap indexes its buckets by within a partition
+        int hash = Objects.hashCode(key) * 0x9E3779B9;
+        return (hash >>> 16) & (partitionCount - 1);
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import pw.ollie.dzlib.function.LongObjConsumer;
+import pw.ollie.dzlib.function.LongObjFunction;
+import pw.ollie.dzlib.function.LongObjPredicate;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.*;
+
+/**
+ * A {@link BiStream}-like object for pairs of a {@code long} key and an object value, which never boxes the keys.
+ * <p>
+ * Like {@code BiStream}, the stream operates on a generic element type using two functions to extract the key and
+ * the value from each element, and it is strictly guaranteed that each function is invoked exactly once for any
+ * single element. Operations such as {@link #mapKeys(LongUnaryOperator)}, {@link #mapValues(Function)},
+ * {@link #keys()} and {@link #forEach} compose or invoke those functions directly; operations which need both the
+ * key and the value more than once, such as {@link #filter}, degeneralize the stream into a stream of small
+ * primitive-keyed entries, which costs a single allocation per pair rather than a {@code Long} and a
+ * {@code Map.Entry}.
+ * <p>
+ * Use {@link #boxed()} to access operations only offered by {@code BiStream}.
+ *
+ * @param <V> the value type
+ */
+public final class LongObjBiStream<V> {
+    private final Stream<?> underlying;
+    private final ToLongFunction<Object> toKey;
+    private final Function<Object, ? extends V> toValue;
+    private final boolean entries;
+
+    @SuppressWarnings("unchecked")
+    private <E> LongObjBiStream(Stream<E> underlying, ToLongFunction<? super E> toKey, Function<? super E, ? extends V> toValue, boolean entries) {
+        this.underlying = requireNonNull(underlying);
+        this.toKey = (ToLongFunction<Object>) requireNonNull(toKey);
+        this.toValue = (Function<Object, ? extends V>) requireNonNull(toValue);
+        this.entries = entries;
+    }
+
+    /**
+     * Returns an empty {@code LongObjBiStream}.
+     */
+    public static <V> LongObjBiStream<V> empty() {
+        return fromEntries(Stream.empty());
+    }
+
+    /**
+     * Returns a {@code LongObjBiStream} of a single pair containing {@code key} and {@code value}.
+     */
+    public static <V> LongObjBiStream<V> of(long key, V value) {
+        return fromEntries(Stream.of(new LongEntry<>(key, value)));
+    }
+
+    /**
+     * Returns a {@code LongObjBiStream} where each element in {@code values} is keyed by its corresponding 0-based
+     * index. Unlike {@link BiStream#indexed}, no index is boxed.
+     * <p>
+     * The returned stream is parallel if {@code values} is, and splits whenever the spliterator of {@code values}
+     * is {@link Spliterator#SUBSIZED}.
+     */
+    public static <V> LongObjBiStream<V> indexed(Stream<V> values) {
+        requireNonNull(values);
+        Stream<LongEntry<V>> indexed = StreamSupport.stream(new IndexingSpliterator<>(values.spliterator(), 0), values.isParallel());
+        return fromEntries(indexed.onClose(values::close));
+    }
+
+    /**
+     * Returns a {@code LongObjBiStream} of the elements from {@code stream}, each transformed to a pair of values
+     * with {@code toKey} and {@code toValue}.
+     */
+    public static <T, V> LongObjBiStream<V> from(Stream<T> stream, ToLongFunction<? super T> toKey, Function<? super T, ? extends V> toValue) {
+        return new LongObjBiStream<>(stream, toKey, toValue, false);
+    }
+
+    /**
+     * Returns a {@code LongObjBiStream} of the keys from {@code keys}, each paired with the value produced by
+     * applying {@code toValue} to it.
+     */
+    public static <V> LongObjBiStream<V> from(LongStream keys, LongFunction<? extends V> toValue) {
+        requireNonNull(toValue);
+        return fromEntries(keys.mapToObj(key -> new LongEntry<>(key, toValue.apply(key))));
+    }
+
+    private static <V> LongObjBiStream<V> fromEntries(Stream<LongEntry<V>> entryStream) {
+        return new LongObjBiStream<>(entryStream, LongEntry::getKey, LongEntry::getValue, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Stream<LongEntry<V>> mapToEntry() {
+        if (entries) { // Reuse the same entries. Don't allocate new ones
+            return (Stream<LongEntry<V>>) underlying;
+        }
+        return underlying.map(e -> new LongEntry<>(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns an equivalent parallel stream.
+     */
+    public LongObjBiStream<V> parallel() {
+        return new LongObjBiStream<>(underlying.parallel(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns an equivalent sequential stream.
+     */
+    public LongObjBiStream<V> sequential() {
+        return new LongObjBiStream<>(underlying.sequential(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of the results of applying {@code mapper} to each pair in this stream.
+     */
+    public <T> Stream<T> mapToObj(LongObjFunction<? super V, ? extends T> mapper) {
+        requireNonNull(mapper);
+        return underlying.map(e -> mapper.apply(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Maps each key to another {@code long} key.
+     */
+    public LongObjBiStream<V> mapKeys(LongUnaryOperator keyMapper) {
+        requireNonNull(keyMapper);
+        return new LongObjBiStream<>(underlying, e -> keyMapper.applyAsLong(toKey.applyAsLong(e)), toValue, false);
+    }
+
+    /**
+     * Maps each value to another value of type {@code V2}.
+     */
+    public <V2> LongObjBiStream<V2> mapValues(Function<? super V, ? extends V2> valueMapper) {
+        requireNonNull(valueMapper);
+        return new LongObjBiStream<>(underlying, toKey, toValue.andThen(valueMapper), false);
+    }
+
+    /**
+     * Maps each pair to a new value of type {@code V2}, keeping the key.
+     */
+    public <V2> LongObjBiStream<V2> mapValues(LongObjFunction<? super V, ? extends V2> valueMapper) {
+        requireNonNull(valueMapper);
+        return fromEntries(underlying.map(e -> {
+            long key = toKey.applyAsLong(e);
+            return new LongEntry<>(key, valueMapper.apply(key, toValue.apply(e)));
+        }));
+    }
+
+    /**
+     * Returns a {@code BiStream} of the pairs in this stream with boxed keys.
+     */
+    public BiStream<Long, V> boxed() {
+        return BiStream.from(underlying, toKey::applyAsLong, toValue);
+    }
+
+    /**
+     * Returns an {@code LongStream} consisting of only the keys from each pair in this stream.
+     */
+    public LongStream keys() {
+        return underlying.mapToLong(toKey);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of only the values from each pair in this stream.
+     */
+    public Stream<V> values() {
+        return underlying.map(toValue);
+    }
+
+    /**
+     * Filter this stream to only pairs matching {@code predicate}.
+     */
+    public LongObjBiStream<V> filter(LongObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return fromEntries(mapToEntry().filter(e -> predicate.test(e.key, e.value)));
+    }
+
+    /**
+     * Filter this stream to only pairs whose key matches {@code predicate}.
+     */
+    public LongObjBiStream<V> filterKeys(LongPredicate predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(k));
+    }
+
+    /**
+     * Filter this stream to only pairs whose value matches {@code predicate}.
+     */
+    public LongObjBiStream<V> filterValues(Predicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(v));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs of this stream, additionally invoking {@code action} on each pair as
+     * pairs are consumed from the resulting stream.
+     */
+    public LongObjBiStream<V> peek(LongObjConsumer<? super V> action) {
+        requireNonNull(action);
+        return fromEntries(mapToEntry().peek(e -> action.accept(e.key, e.value)));
+    }
+
+    /**
+     * Returns a stream consisting of only the first {@code maxSize} pairs of this stream.
+     */
+    public LongObjBiStream<V> limit(long maxSize) {
+        return new LongObjBiStream<>(underlying.limit(maxSize), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the remaining pairs from this stream, after discarding the first {@code n}
+     * pairs.
+     */
+    public LongObjBiStream<V> skip(long n) {
+        return new LongObjBiStream<>(underlying.skip(n), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in ascending order of their keys.
+     */
+    public LongObjBiStream<V> sortedByKeys() {
+        return fromEntries(mapToEntry().sorted(Comparator.comparingLong(LongEntry::getKey)));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in the order produced by applying
+     * {@code comparator} on the values of each pair.
+     */
+    public LongObjBiStream<V> sortedByValues(Comparator<? super V> comparator) {
+        requireNonNull(comparator);
+        return fromEntries(mapToEntry().sorted(Comparator.comparing(LongEntry::getValue, comparator)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream.
+     */
+    public void forEach(LongObjConsumer<? super V> action) {
+        requireNonNull(action);
+        underlying.forEach(e -> action.accept(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream, in order.
+     */
+    public void forEachOrdered(LongObjConsumer<? super V> action) {
+        requireNonNull(action);
+        underlying.forEachOrdered(e -> action.accept(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if all pairs in this stream match {@code predicate}.
+     */
+    public boolean allMatch(LongObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return underlying.allMatch(e -> predicate.test(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if any pair in this stream matches {@code predicate}.
+     */
+    public boolean anyMatch(LongObjPredicate<? super V> predicate) {
+        requireNonNull(predicate);
+        return underlying.anyMatch(e -> predicate.test(toKey.applyAsLong(e), toValue.apply(e)));
+    }
+
+    /**
+     * Returns true if no pairs in this stream match {@code predicate}.
+     */
+    public boolean noneMatch(LongObjPredicate<? super V> predicate) {
+        return !anyMatch(predicate);
+    }
+
+    /**
+     * Returns the count of pairs in this stream.
+     */
+    public long count() {
+        return underlying.count();
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TLongObjectMap}. Duplicate keys cause
+     * {@link IllegalArgumentException}.
+     */
+    public TLongObjectMap<V> toMap() {
+        return toMap((a, b) -> {
+            throw new IllegalArgumentException("Duplicate values encountered");
+        });
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TLongObjectMap}, using {@code valueMerger} to merge values of
+     * duplicate keys.
+     */
+    public TLongObjectMap<V> toMap(BinaryOperator<V> valueMerger) {
+        requireNonNull(valueMerger);
+        return underlying.collect(TLongObjectHashMap::new,
+                (map, e) -> merge(map, toKey.applyAsLong(e), toValue.apply(e), valueMerger),
+                (left, right) -> right.forEachEntry((key, value) -> {
+                    merge(left, key, value, valueMerger);
+                    return true;
+                }));
+    }
+
+    private static <V> void merge(TLongObjectMap<V> map, long key, V value, BinaryOperator<V> valueMerger) {
+        if (map.containsKey(key)) {
+            map.put(key, valueMerger.apply(map.get(key), value));
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    private static final class LongEntry<V> {
+        private final long key;
+        private final V value;
+
+        LongEntry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        long getKey() {
+            return key;
+        }
+
+        V getValue() {
+            return value;
+        }
+    }
+
+    private static final class IndexingSpliterator<V> implements Spliterator<LongEntry<V>> {
+        private final Spliterator<V> values;
+
+        private long index;
+
+        IndexingSpliterator(Spliterator<V> values, long index) {
+            this.values = requireNonNull(values);
+            this.index = index;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super LongEntry<V>> action) {
+            requireNonNull(action);
+            return values.tryAdvance(v -> action.accept(new LongEntry<>(index++, v)));
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super LongEntry<V>> action) {
+            requireNonNull(action);
+            values.forEachRemaining(v -> action.accept(new LongEntry<>(index++, v)));
+        }
+
+        @Override
+        public Spliterator<LongEntry<V>> trySplit() {
+            // Only split when the prefix size is exact, otherwise the indices of the suffix would be unknown
+            if (!values.hasCharacteristics(SUBSIZED)) {
+                return null;
+            }
+            Spliterator<V> prefix = values.trySplit();
+            if (prefix == null) {
+                return null;
+            }
+            Spliterator<LongEntry<V>> result = new IndexingSpliterator<>(prefix, index);
+            index += prefix.getExactSizeIfKnown();
+            return result;
+        }
+
+        @Override
+        public long estimateSize() {
+            return values.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return values.characteristics() & (ORDERED | SIZED | SUBSIZED) | NONNULL;
+        }
+    }
+}
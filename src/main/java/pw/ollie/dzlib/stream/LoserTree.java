@@ -0,0 +1,128 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges several sorted sources into one sorted sequence using a tournament tree of losers.
+ * Each internal node of the tree remembers the source which lost the match played there,
+ * so replacing the overall winner only replays the matches on the path from its leaf to the
+ * root: {@code log2(k)} comparisons per element for {@code k} sources, with {@code O(k)}
+ * memory.
+ * <p>
+ * Elements which compare equal are returned in the order of their sources, so the merge is
+ * stable.
+ */
+final class LoserTree<T> implements Iterator<T> {
+    private final Comparator<? super T> comparator;
+    private final Iterator<? extends T>[] sources;
+    private final Object[] heads;
+    private final boolean[] exhausted;
+    /**
+     * {@code tree[0]} is the overall winner, {@code tree[1..k-1]} the loser at each internal
+     * node. Source {@code i} is the leaf at node {@code k + i}.
+     */
+    private final int[] tree;
+
+    @SuppressWarnings("unchecked")
+    LoserTree(Comparator<? super T> comparator, List<? extends Iterator<? extends T>> sources) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("nothing to merge");
+        }
+        int k = sources.size();
+        this.comparator = comparator;
+        this.sources = (Iterator<? extends T>[]) sources.toArray(new Iterator<?>[k]);
+        this.heads = new Object[k];
+        this.exhausted = new boolean[k];
+        this.tree = new int[k];
+        for (int i = 0; i < k; i++) {
+            pull(i);
+            tree[i] = -1;
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            replay(i);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !exhausted[tree[0]];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        int winner = tree[0];
+        if (exhausted[winner]) {
+            throw new NoSuchElementException();
+        }
+        T result = (T) heads[winner];
+        pull(winner);
+        replay(winner);
+        return result;
+    }
+
+    private void pull(int source) {
+        if (sources[source].hasNext()) {
+            heads[source] = sources[source].next();
+        } else {
+            heads[source] = null;
+            exhausted[source] = true;
+        }
+    }
+
+    /**
+     * Plays the matches on the path from the leaf of {@code source} up to the root. While
+     * the tree is being built, an empty node means the other side of it isn't built yet, so
+     * the winner so far waits there instead.
+     */
+    private void replay(int source) {
+        int winner = source;
+        for (int node = (source + tree.length) >>> 1; node > 0; node >>>= 1) {
+            int opponent = tree[node];
+            if (opponent == -1) {
+                tree[node] = winner;
+                return;
+            }
+            if (beats(opponent, winner)) {
+                tree[node] = winner;
+                winner = opponent;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean beats(int a, int b) {
+        if (exhausted[a] || exhausted[b]) {
+            return !exhausted[a] || (exhausted[b] && a < b);
+        }
+        int result = comparator.compare((T) heads[a], (T) heads[b]);
+        return result < 0 || (result == 0 && a < b);
+    }
+}
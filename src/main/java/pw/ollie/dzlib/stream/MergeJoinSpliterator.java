@@ -0,0 +1,91 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Joins two streams of entries which are both sorted by key, by advancing whichever side is
+ * behind. Only the values of the current run of equal keys on the right are buffered, so
+ * that each of them can be paired with every left entry with the same key.
+ */
+final class MergeJoinSpliterator<K, V1, V2, R> extends Spliterators.AbstractSpliterator<Map.Entry<K, R>> {
+    private final Iterator<? extends Map.Entry<? extends K, ? extends V1>> left;
+    private final Iterator<? extends Map.Entry<? extends K, ? extends V2>> right;
+    private final Comparator<? super K> comparator;
+    private final BiFunction<? super V1, ? super V2, ? extends R> combiner;
+
+    private final List<V2> run = new ArrayList<>();
+    private K runKey;
+    private Map.Entry<? extends K, ? extends V2> rightHead;
+    private Map.Entry<? extends K, ? extends V1> current;
+    private int index;
+
+    MergeJoinSpliterator(Iterator<? extends Map.Entry<? extends K, ? extends V1>> left, Iterator<? extends Map.Entry<? extends K, ? extends V2>> right,
+                         Comparator<? super K> comparator, BiFunction<? super V1, ? super V2, ? extends R> combiner) {
+        super(Long.MAX_VALUE, ORDERED);
+        this.left = left;
+        this.right = right;
+        this.comparator = comparator;
+        this.combiner = combiner;
+        this.rightHead = right.hasNext() ? right.next() : null;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<K, R>> action) {
+        while (current == null || index == run.size()) {
+            if (!left.hasNext()) {
+                return false;
+            }
+            current = left.next();
+            index = 0;
+            if (!run.isEmpty() && comparator.compare(current.getKey(), runKey) == 0) {
+                continue;
+            }
+            run.clear();
+            while (rightHead != null && comparator.compare(rightHead.getKey(), current.getKey()) < 0) {
+                rightHead = right.hasNext() ? right.next() : null;
+            }
+            if (rightHead == null) {
+                return false;
+            }
+            if (comparator.compare(rightHead.getKey(), current.getKey()) == 0) {
+                runKey = rightHead.getKey();
+                do {
+                    run.add(rightHead.getValue());
+                    rightHead = right.hasNext() ? right.next() : null;
+                } while (rightHead != null && comparator.compare(rightHead.getKey(), runKey) == 0);
+            }
+        }
+        action.accept(BiStream.kv(current.getKey(), combiner.apply(current.getValue(), run.get(index++))));
+        return true;
+    }
+}
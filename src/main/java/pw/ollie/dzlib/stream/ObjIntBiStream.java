@@ -0,0 +1,332 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import pw.ollie.dzlib.function.ObjIntFunction;
+import pw.ollie.dzlib.function.ObjIntPredicate;
+
+import java.util.Comparator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Objects.*;
+
+/**
+ * A {@link BiStream}-like object for pairs of an object key and an {@code int} value, which never boxes the
+ * values.
+ * <p>
+ * Like {@code BiStream}, the stream operates on a generic element type using two functions to extract the key and
+ * the value from each element, and it is strictly guaranteed that each function is invoked exactly once for any
+ * single element. Operations which need both the key and the value more than once, such as {@link #filter},
+ * degeneralize the stream into a stream of small primitive-valued entries.
+ * <p>
+ * Use {@link #boxed()} to access operations only offered by {@code BiStream}.
+ *
+ * @param <K> the key type
+ */
+public final class ObjIntBiStream<K> {
+    private final Stream<?> underlying;
+    private final Function<Object, ? extends K> toKey;
+    private final ToIntFunction<Object> toValue;
+    private final boolean entries;
+
+    @SuppressWarnings("unchecked")
+    private <E> ObjIntBiStream(Stream<E> underlying, Function<? super E, ? extends K> toKey, ToIntFunction<? super E> toValue, boolean entries) {
+        this.underlying = requireNonNull(underlying);
+        this.toKey = (Function<Object, ? extends K>) requireNonNull(toKey);
+        this.toValue = (ToIntFunction<Object>) requireNonNull(toValue);
+        this.entries = entries;
+    }
+
+    /**
+     * Returns an empty {@code ObjIntBiStream}.
+     */
+    public static <K> ObjIntBiStream<K> empty() {
+        return fromEntries(Stream.empty());
+    }
+
+    /**
+     * Returns an {@code ObjIntBiStream} of a single pair containing {@code key} and {@code value}.
+     */
+    public static <K> ObjIntBiStream<K> of(K key, int value) {
+        return fromEntries(Stream.of(new IntValueEntry<>(key, value)));
+    }
+
+    /**
+     * Returns an {@code ObjIntBiStream} of the elements from {@code stream}, each transformed to a pair of values
+     * with {@code toKey} and {@code toValue}.
+     */
+    public static <T, K> ObjIntBiStream<K> from(Stream<T> stream, Function<? super T, ? extends K> toKey, ToIntFunction<? super T> toValue) {
+        return new ObjIntBiStream<>(stream, toKey, toValue, false);
+    }
+
+    /**
+     * Returns an {@code ObjIntBiStream} of the elements from {@code keys}, each paired with the value produced by
+     * applying {@code toValue} to it.
+     */
+    public static <K> ObjIntBiStream<K> from(Stream<K> keys, ToIntFunction<? super K> toValue) {
+        return new ObjIntBiStream<>(keys, k -> k, toValue, false);
+    }
+
+    private static <K> ObjIntBiStream<K> fromEntries(Stream<IntValueEntry<K>> entryStream) {
+        return new ObjIntBiStream<>(entryStream, IntValueEntry::getKey, IntValueEntry::getValue, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Stream<IntValueEntry<K>> mapToEntry() {
+        if (entries) { // Reuse the same entries. Don't allocate new ones
+            return (Stream<IntValueEntry<K>>) underlying;
+        }
+        return underlying.map(e -> new IntValueEntry<>(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Returns an equivalent parallel stream.
+     */
+    public ObjIntBiStream<K> parallel() {
+        return new ObjIntBiStream<>(underlying.parallel(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns an equivalent sequential stream.
+     */
+    public ObjIntBiStream<K> sequential() {
+        return new ObjIntBiStream<>(underlying.sequential(), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of the results of applying {@code mapper} to each pair in this stream.
+     */
+    public <T> Stream<T> mapToObj(ObjIntFunction<? super K, ? extends T> mapper) {
+        requireNonNull(mapper);
+        return underlying.map(e -> mapper.apply(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Maps each key to another key of type {@code K2}.
+     */
+    public <K2> ObjIntBiStream<K2> mapKeys(Function<? super K, ? extends K2> keyMapper) {
+        requireNonNull(keyMapper);
+        return new ObjIntBiStream<>(underlying, toKey.andThen(keyMapper), toValue, false);
+    }
+
+    /**
+     * Maps each value to another {@code int} value.
+     */
+    public ObjIntBiStream<K> mapValues(IntUnaryOperator valueMapper) {
+        requireNonNull(valueMapper);
+        return new ObjIntBiStream<>(underlying, toKey, e -> valueMapper.applyAsInt(toValue.applyAsInt(e)), false);
+    }
+
+    /**
+     * Returns a {@code BiStream} of the pairs in this stream with boxed values.
+     */
+    public BiStream<K, Integer> boxed() {
+        return BiStream.from(underlying, toKey, toValue::applyAsInt);
+    }
+
+    /**
+     * Returns a {@code Stream} consisting of only the keys from each pair in this stream.
+     */
+    public Stream<K> keys() {
+        return underlying.map(toKey);
+    }
+
+    /**
+     * Returns an {@code IntStream} consisting of only the values from each pair in this stream.
+     */
+    public IntStream values() {
+        return underlying.mapToInt(toValue);
+    }
+
+    /**
+     * Filter this stream to only pairs matching {@code predicate}.
+     */
+    public ObjIntBiStream<K> filter(ObjIntPredicate<? super K> predicate) {
+        requireNonNull(predicate);
+        return fromEntries(mapToEntry().filter(e -> predicate.test(e.key, e.value)));
+    }
+
+    /**
+     * Filter this stream to only pairs whose key matches {@code predicate}.
+     */
+    public ObjIntBiStream<K> filterKeys(Predicate<? super K> predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(k));
+    }
+
+    /**
+     * Filter this stream to only pairs whose value matches {@code predicate}.
+     */
+    public ObjIntBiStream<K> filterValues(IntPredicate predicate) {
+        requireNonNull(predicate);
+        return filter((k, v) -> predicate.test(v));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs of this stream, additionally invoking {@code action} on each pair as
+     * pairs are consumed from the resulting stream.
+     */
+    public ObjIntBiStream<K> peek(ObjIntConsumer<? super K> action) {
+        requireNonNull(action);
+        return fromEntries(mapToEntry().peek(e -> action.accept(e.key, e.value)));
+    }
+
+    /**
+     * Returns a stream consisting of only the first {@code maxSize} pairs of this stream.
+     */
+    public ObjIntBiStream<K> limit(long maxSize) {
+        return new ObjIntBiStream<>(underlying.limit(maxSize), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the remaining pairs from this stream, after discarding the first {@code n}
+     * pairs.
+     */
+    public ObjIntBiStream<K> skip(long n) {
+        return new ObjIntBiStream<>(underlying.skip(n), toKey, toValue, entries);
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in the order produced by applying
+     * {@code comparator} on the keys of each pair.
+     */
+    public ObjIntBiStream<K> sortedByKeys(Comparator<? super K> comparator) {
+        requireNonNull(comparator);
+        return fromEntries(mapToEntry().sorted(Comparator.comparing(IntValueEntry::getKey, comparator)));
+    }
+
+    /**
+     * Returns a stream consisting of the pairs in this stream, in ascending order of their values.
+     */
+    public ObjIntBiStream<K> sortedByValues() {
+        return fromEntries(mapToEntry().sorted(Comparator.comparingInt(IntValueEntry::getValue)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream.
+     */
+    public void forEach(ObjIntConsumer<? super K> action) {
+        requireNonNull(action);
+        underlying.forEach(e -> action.accept(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Performs {@code action} for each pair in this stream, in order.
+     */
+    public void forEachOrdered(ObjIntConsumer<? super K> action) {
+        requireNonNull(action);
+        underlying.forEachOrdered(e -> action.accept(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Returns true if all pairs in this stream match {@code predicate}.
+     */
+    public boolean allMatch(ObjIntPredicate<? super K> predicate) {
+        requireNonNull(predicate);
+        return underlying.allMatch(e -> predicate.test(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Returns true if any pair in this stream matches {@code predicate}.
+     */
+    public boolean anyMatch(ObjIntPredicate<? super K> predicate) {
+        requireNonNull(predicate);
+        return underlying.anyMatch(e -> predicate.test(toKey.apply(e), toValue.applyAsInt(e)));
+    }
+
+    /**
+     * Returns true if no pairs in this stream match {@code predicate}.
+     */
+    public boolean noneMatch(ObjIntPredicate<? super K> predicate) {
+        return !anyMatch(predicate);
+    }
+
+    /**
+     * Returns the count of pairs in this stream.
+     */
+    public long count() {
+        return underlying.count();
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TObjectIntMap}. Duplicate keys cause
+     * {@link IllegalArgumentException}.
+     */
+    public TObjectIntMap<K> toMap() {
+        return toMap((a, b) -> {
+            throw new IllegalArgumentException("Duplicate values encountered");
+        });
+    }
+
+    /**
+     * Collects the pairs in this stream into a {@link TObjectIntMap}, using {@code valueMerger} to merge values of
+     * duplicate keys. For example, {@code toMap(Integer::sum)} sums the values of each key without boxing.
+     */
+    public TObjectIntMap<K> toMap(IntBinaryOperator valueMerger) {
+        requireNonNull(valueMerger);
+        return underlying.collect(TObjectIntHashMap::new,
+                (map, e) -> merge(map, toKey.apply(e), toValue.applyAsInt(e), valueMerger),
+                (left, right) -> right.forEachEntry((key, value) -> {
+                    merge(left, key, value, valueMerger);
+                    return true;
+                }));
+    }
+
+    private static <K> void merge(TObjectIntMap<K> map, K key, int value, IntBinaryOperator valueMerger) {
+        if (map.containsKey(key)) {
+            map.put(key, valueMerger.applyAsInt(map.get(key), value));
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    private static final class IntValueEntry<K> {
+        private final K key;
+        private final int value;
+
+        IntValueEntry(K key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        K getKey() {
+            return key;
+        }
+
+        int getValue() {
+            return value;
+        }
+    }
+}
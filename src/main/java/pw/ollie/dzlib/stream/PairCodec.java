@@ -0,0 +1,68 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes pairs to and reads them back from a binary stream, for example so that they can be
+ * spilled to disk by {@link BiStream#sortedByKeys(java.util.Comparator, int, PairCodec)}.
+ * <p>
+ * {@link #readKey} and {@link #readValue} are called in turn for each pair, in the same order
+ * the pair was written in.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public interface PairCodec<K, V> {
+    /**
+     * Writes {@code key} and {@code value} to {@code out}.
+     *
+     * @param key   the key to write
+     * @param value the value to write
+     * @param out   the output to write to
+     * @throws IOException if writing fails
+     */
+    void write(K key, V value, DataOutput out) throws IOException;
+
+    /**
+     * Reads the key of the next pair from {@code in}.
+     *
+     * @param in the input to read from
+     * @return the key which was read
+     * @throws IOException if reading fails
+     */
+    K readKey(DataInput in) throws IOException;
+
+    /**
+     * Reads the value of the pair whose key was just read from {@code in}.
+     *
+     * @param in the input to read from
+     * @return the value which was read
+     * @throws IOException if reading fails
+     */
+    V readValue(DataInput in) throws IOException;
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import pw.ollie.dzlib.function.CheckedFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Runs a checked function over the elements of a stream on an executor, with at most
+ * {@code maxParallelism} elements running at once.
+ * <p>
+ * The stream is read on the calling thread, which waits for a permit before submitting each
+ * element, so no more than {@code maxParallelism} elements are ever read ahead of those
+ * finished. When failing fast, the first failure stops the stream being read, and cancels the
+ * elements already submitted, interrupting those which are running.
+ */
+final class ParallelExecution<T, R, E extends Throwable> {
+    private static final Object PENDING = new Object();
+
+    private final CheckedFunction<? super T, ? extends R, E> function;
+    private final int maxParallelism;
+    private final boolean failFast;
+    private final boolean keepResults;
+    private final Executor executor;
+
+    private final Semaphore permits;
+    private final Set<Task> running = ConcurrentHashMap.newKeySet();
+    private final List<Object> results = new ArrayList<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private volatile boolean stopped;
+
+    ParallelExecution(CheckedFunction<? super T, ? extends R, E> function, int maxParallelism, boolean failFast, boolean keepResults, Executor executor) {
+        this.function = function;
+        this.maxParallelism = maxParallelism;
+        this.failFast = failFast;
+        this.keepResults = keepResults;
+        this.executor = executor;
+        this.permits = new Semaphore(maxParallelism);
+    }
+
+    ExecutionSummary<R, E> run(Stream<? extends T> stream) {
+        try {
+            for (T element : StreamUtil.iterateOnce(stream)) {
+                permits.acquire();
+                if (stopped) {
+                    permits.release();
+                    break;
+                }
+                int index;
+                synchronized (results) {
+                    index = results.size();
+                    if (keepResults) {
+                        results.add(PENDING);
+                    }
+                }
+                Task task = new Task(element, index);
+                running.add(task);
+                executor.execute(task);
+            }
+            permits.acquire(maxParallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll();
+            throw new IllegalStateException("interrupted while waiting for parallel execution", e);
+        } catch (RuntimeException | Error e) {
+            cancelAll();
+            throw e;
+        }
+
+        List<R> successful = new ArrayList<>();
+        synchronized (results) {
+            for (Object result : results) {
+                if (result != PENDING) {
+                    @SuppressWarnings("unchecked")
+                    R r = (R) result;
+                    successful.add(r);
+                }
+            }
+        }
+        List<Throwable> recorded;
+        synchronized (failures) {
+            recorded = new ArrayList<>(failures);
+        }
+        return new ExecutionSummary<>(successful, succeeded.sum(), failed.sum(), cancelled.sum(), recorded);
+    }
+
+    private void fail(Throwable failure) {
+        failed.increment();
+        synchronized (failures) {
+            if (failures.size() < ExecutionSummary.MAX_RECORDED_FAILURES) {
+                failures.add(failure);
+            }
+        }
+        if (failFast && !stopped) {
+            stopped = true;
+            cancelAll();
+        }
+    }
+
+    private void cancelAll() {
+        stopped = true;
+        for (Task task : running) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Runs the function for one element. The permit taken for the element is released exactly
+     * once: by the task if it starts running, or by {@link #done} if it's cancelled first.
+     */
+    private final class Task extends FutureTask<Void> {
+        private final AtomicBoolean claimed;
+
+        Task(T element, int index) {
+            this(new Body(element, index));
+        }
+
+        private Task(Body body) {
+            super(body, null);
+            this.claimed = body.claimed;
+            body.task = this;
+        }
+
+        @Override
+        protected void done() {
+            running.remove(this);
+            if (claimed.compareAndSet(false, true)) {
+                cancelled.increment();
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * The work of a {@link Task}, which refers back to its task to tell whether a failure was
+     * caused by the task being cancelled.
+     */
+    private final class Body implements Runnable {
+        private final T element;
+        private final int index;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        // set before the task is submitted, so visible to the thread running it
+        private Task task;
+
+        Body(T element, int index) {
+            this.element = element;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            if (stopped && failFast) {
+                cancelled.increment(); // submitted just as an earlier failure cancelled the rest
+                permits.release();
+                return;
+            }
+            try {
+                R result = function.apply(element);
+                succeeded.increment();
+                if (keepResults) {
+                    synchronized (results) {
+                        results.set(index, result);
+                    }
+                }
+            } catch (Throwable e) {
+                // a genuine failure still counts as one, even once an earlier failure has stopped the rest
+                if (stopped && failFast && (task.isCancelled() || Thread.interrupted())) {
+                    cancelled.increment();
+                } else {
+                    fail(e);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import static java.util.Objects.*;
+
+/**
+ * Instruments the stages of stream and {@link BiStream} pipelines, by wrapping the functions
+ * passed to each stage. For example:
+ * <pre>  {@code
+ *   PipelineProbe probe = PipelineProbe.create(metrics -> log.info(metrics.toString()));
+ *   BiStream.from(lines, probe.mapper("key", Line::key), probe.mapper("parse", Line::parse))
+ *       .filter(probe.filter("valid", (key, record) -> record.isValid()))
+ *       .collect(probe.collector("collect", toMap()));
+ *   probe.report();
+ * }</pre>
+ * <p>
+ * Each stage counts the elements entering and leaving it. To keep the overhead low on hot
+ * paths, only one in {@code samplePeriod} elements, picked at random, is timed, and the total
+ * time is extrapolated from those. Stages with the same name share their metrics.
+ * <p>
+ * A {@link #disabled()} probe returns every function it's given unwrapped, so instrumentation
+ * can be switched off without any overhead in the pipeline.
+ */
+public final class PipelineProbe {
+    private static final PipelineProbe DISABLED = new PipelineProbe(null, 1);
+
+    private final MetricsSink sink;
+    private final int samplePeriod;
+    private final Map<String, Stage> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private PipelineProbe(MetricsSink sink, int samplePeriod) {
+        this.sink = sink;
+        this.samplePeriod = samplePeriod;
+    }
+
+    /**
+     * Returns a probe which reports to {@code sink}, timing one in 64 elements.
+     */
+    public static PipelineProbe create(MetricsSink sink) {
+        return create(sink, 64);
+    }
+
+    /**
+     * Returns a probe which reports to {@code sink}, timing one in {@code samplePeriod}
+     * elements on average.
+     *
+     * @throws IllegalArgumentException if {@code samplePeriod <= 0}
+     */
+    public static PipelineProbe create(MetricsSink sink, int samplePeriod) {
+        requireNonNull(sink);
+        if (samplePeriod <= 0) throw new IllegalArgumentException(Integer.toString(samplePeriod));
+        return new PipelineProbe(sink, samplePeriod);
+    }
+
+    /**
+     * Returns a probe which doesn't instrument anything.
+     */
+    public static PipelineProbe disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns whether this probe instruments the functions it's given.
+     */
+    public boolean isEnabled() {
+        return sink != null;
+    }
+
+    /**
+     * Instruments a mapping stage, such as {@link Stream#map} or {@link BiStream#mapValues}.
+     */
+    @SuppressWarnings("unchecked") // safe, as the wildcards only widen what the function accepts and returns
+    public <T, R> Function<T, R> mapper(String stage, Function<? super T, ? extends R> mapper) {
+        requireNonNull(mapper);
+        if (!isEnabled()) {
+            return (Function<T, R>) mapper;
+        }
+        Stage metrics = stage(stage);
+        return t -> {
+            metrics.in.increment();
+            R result = metrics.sample() ? metrics.timed(() -> mapper.apply(t)) : mapper.apply(t);
+            metrics.out.increment();
+            return result;
+        };
+    }
+
+    /**
+     * Instruments a mapping stage of a {@link BiStream}, such as {@link BiStream#mapToObj}.
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V, R> BiFunction<K, V, R> mapper(String stage, BiFunction<? super K, ? super V, ? extends R> mapper) {
+        requireNonNull(mapper);
+        if (!isEnabled()) {
+            return (BiFunction<K, V, R>) mapper;
+        }
+        Stage metrics = stage(stage);
+        return (k, v) -> {
+            metrics.in.increment();
+            R result = metrics.sample() ? metrics.timed(() -> mapper.apply(k, v)) : mapper.apply(k, v);
+            metrics.out.increment();
+            return result;
+        };
+    }
+
+    /**
+     * Instruments a filtering stage, such as {@link Stream#filter} or
+     * {@link BiStream#filterKeys}. Only the elements which pass the filter are counted as
+     * leaving the stage.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Predicate<T> filter(String stage, Predicate<? super T> predicate) {
+        requireNonNull(predicate);
+        if (!isEnabled()) {
+            return (Predicate<T>) predicate;
+        }
+        Stage metrics = stage(stage);
+        return t -> {
+            metrics.in.increment();
+            boolean result = metrics.sample() ? metrics.timed(() -> predicate.test(t)) : predicate.test(t);
+            if (result) {
+                metrics.out.increment();
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Instruments a filtering stage of a {@link BiStream}, such as {@link BiStream#filter}.
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> BiPredicate<K, V> filter(String stage, BiPredicate<? super K, ? super V> predicate) {
+        requireNonNull(predicate);
+        if (!isEnabled()) {
+            return (BiPredicate<K, V>) predicate;
+        }
+        Stage metrics = stage(stage);
+        return (k, v) -> {
+            metrics.in.increment();
+            boolean result = metrics.sample() ? metrics.timed(() -> predicate.test(k, v)) : predicate.test(k, v);
+            if (result) {
+                metrics.out.increment();
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Instruments a {@link Stream#flatMap flatMap()} stage. The time taken to create each
+     * resulting stream is measured, and its elements are counted as leaving the stage as they're
+     * read.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> Function<T, Stream<R>> flatMapper(String stage, Function<? super T, ? extends Stream<? extends R>> mapper) {
+        requireNonNull(mapper);
+        if (!isEnabled()) {
+            return (Function<T, Stream<R>>) mapper;
+        }
+        Stage metrics = stage(stage);
+        return t -> {
+            metrics.in.increment();
+            Stream<? extends R> result = metrics.sample() ? metrics.timed(() -> mapper.apply(t)) : mapper.apply(t);
+            return result == null ? null : result.map(r -> {
+                metrics.out.increment();
+                return r;
+            });
+        };
+    }
+
+    /**
+     * Instruments a stage which transforms a whole stream, such as
+     * {@link StreamUtil#dice(Stream, int) dice()} or {@link StreamUtil#flatten flatten()},
+     * counting the elements of {@code input} as they're read into the stage, and the elements of
+     * the result as they're read from it. The time of such stages isn't measured, as it can't be
+     * told apart from the time of the stages before them.
+     *
+     * @param stage     the name of the stage
+     * @param input     the stream entering the stage
+     * @param operation transforms the stream
+     * @return the stream leaving the stage
+     */
+    public <T, R> Stream<R> around(String stage, Stream<T> input, Function<? super Stream<T>, ? extends Stream<R>> operation) {
+        requireNonNull(input);
+        requireNonNull(operation);
+        if (!isEnabled()) {
+            return operation.apply(input);
+        }
+        Stage metrics = stage(stage);
+        return operation.apply(input.peek(t -> metrics.in.increment())).peek(r -> metrics.out.increment());
+    }
+
+    /**
+     * Instruments a collecting stage. Accumulating each element is counted and sampled, while
+     * combining partial results and finishing are always timed, and the result is counted as
+     * the one element leaving the stage.
+     */
+    public <T, A, R> Collector<T, A, R> collector(String stage, Collector<T, A, R> collector) {
+        requireNonNull(collector);
+        if (!isEnabled()) {
+            return collector;
+        }
+        Stage metrics = stage(stage);
+        BiConsumer<A, T> accumulator = collector.accumulator();
+        BinaryOperator<A> combiner = collector.combiner();
+        Function<A, R> finisher = collector.finisher();
+        Set<Collector.Characteristics> characteristics = collector.characteristics();
+        return new Collector<T, A, R>() {
+            @Override
+            public Supplier<A> supplier() {
+                return collector.supplier();
+            }
+
+            @Override
+            public BiConsumer<A, T> accumulator() {
+                return (container, t) -> {
+                    metrics.in.increment();
+                    if (metrics.sample()) {
+                        metrics.timed(() -> {
+                            accumulator.accept(container, t);
+                            return null;
+                        });
+                    } else {
+                        accumulator.accept(container, t);
+                    }
+                };
+            }
+
+            @Override
+            public BinaryOperator<A> combiner() {
+                return (left, right) -> metrics.timedExactly(() -> combiner.apply(left, right));
+            }
+
+            @Override
+            public Function<A, R> finisher() {
+                return container -> {
+                    R result = metrics.timedExactly(() -> finisher.apply(container));
+                    metrics.out.increment();
+                    return result;
+                };
+            }
+
+            @Override
+            public Set<Characteristics> characteristics() {
+                Set<Characteristics> withoutIdentity = EnumSet.noneOf(Characteristics.class);
+                withoutIdentity.addAll(characteristics);
+                withoutIdentity.remove(Characteristics.IDENTITY_FINISH); // the finisher is always wrapped
+                return withoutIdentity;
+            }
+        };
+    }
+
+    /**
+     * Instruments a collecting stage of a {@link BiStream}.
+     *
+     * @see #collector(String, Collector)
+     */
+    public <K, V, R> BiCollector<K, V, R> collector(String stage, BiCollector<K, V, R> collector) {
+        requireNonNull(collector);
+        if (!isEnabled()) {
+            return collector;
+        }
+        return new BiCollector<K, V, R>() {
+            @Override
+            public <E> Collector<E, ?, R> bisecting(Function<E, K> toKey, Function<E, V> toValue) {
+                return collector(stage, collector.bisecting(toKey, toValue));
+            }
+        };
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every stage instrumented by this probe, in the order
+     * the stages were first instrumented.
+     */
+    public List<StageMetrics> snapshot() {
+        List<StageMetrics> snapshot = new ArrayList<>();
+        synchronized (stages) {
+            stages.forEach((name, stage) -> snapshot.add(stage.snapshot(name)));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reports the metrics of every stage instrumented by this probe to its sink.
+     */
+    public void report() {
+        if (isEnabled()) {
+            snapshot().forEach(sink::report);
+        }
+    }
+
+    private Stage stage(String name) {
+        requireNonNull(name);
+        return stages.computeIfAbsent(name, n -> new Stage(samplePeriod));
+    }
+
+    private static final class Stage {
+        final LongAdder in = new LongAdder();
+        final LongAdder out = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final int samplePeriod;
+
+        Stage(int samplePeriod) {
+            this.samplePeriod = samplePeriod;
+        }
+
+        boolean sample() {
+            return samplePeriod == 1 || ThreadLocalRandom.current().nextInt(samplePeriod) == 0;
+        }
+
+        <R> R timed(Supplier<R> action) {
+            long start = System.nanoTime();
+            try {
+                return action.get();
+            } finally {
+                nanos.add((System.nanoTime() - start) * samplePeriod);
+            }
+        }
+
+        <R> R timedExactly(Supplier<R> action) {
+            long start = System.nanoTime();
+            try {
+                return action.get();
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        StageMetrics snapshot(String name) {
+            return new StageMetrics(name, in.sum(), out.sum(), nanos.sum());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.Spliterator;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads ahead of its consumer by draining the underlying spliterator on a background task
+ * into a bounded ring buffer.
+ * <p>
+ * The buffer has exactly one producer, the background task, and one consumer, so it needs no
+ * locks: each side only writes its own index, and a side parks only once it has published that
+ * it is waiting and seen that the buffer is still empty (or full). The background task is
+ * started by the first read, and stops when the underlying spliterator is exhausted, throws, or
+ * this spliterator is {@link #close closed}.
+ */
+final class PrefetchSpliterator<T> implements Spliterator<T>, Runnable {
+    private final Supplier<? extends Spliterator<? extends T>> source;
+    private final Executor executor;
+    private final Object[] ring;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile long head;
+    private volatile long tail;
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private Spliterator<? extends T> underlying;
+    private Throwable failure;
+    private boolean started;
+    private boolean done;
+
+    PrefetchSpliterator(Supplier<? extends Spliterator<? extends T>> source, int bufferSize, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+        // sized exactly, so that at most bufferSize elements are read ahead
+        this.ring = new Object[Math.max(1, bufferSize)];
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!cancelled && underlying.tryAdvance(this::publish)) {
+            }
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            finished = true; // publishes failure, which is written before
+            LockSupport.unpark(waitingConsumer);
+            stopped.countDown();
+        }
+    }
+
+    private void publish(T element) {
+        long t = tail;
+        while (t - head == ring.length) {
+            waitingProducer = Thread.currentThread();
+            if (t - head == ring.length && !cancelled) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+            if (cancelled) {
+                return;
+            }
+        }
+        ring[(int) (t % ring.length)] = element;
+        tail = t + 1;
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (done) {
+            return false;
+        }
+        start();
+        long h = head;
+        while (h == tail) {
+            if (finished && h == tail) {
+                done = true;
+                rethrowFailure();
+                return false;
+            }
+            waitingConsumer = Thread.currentThread();
+            if (h == tail && !finished) {
+                LockSupport.park(this);
+            }
+            waitingConsumer = null;
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("interrupted while waiting for the prefetched stream");
+            }
+        }
+        int slot = (int) (h % ring.length);
+        T element = (T) ring[slot];
+        ring[slot] = null;
+        head = h + 1;
+        LockSupport.unpark(waitingProducer);
+        action.accept(element);
+        return true;
+    }
+
+    private void start() {
+        if (!started) {
+            try {
+                underlying = source.get();
+                executor.execute(this);
+            } catch (RuntimeException | Error e) {
+                done = true;
+                throw e;
+            }
+            // only set once the task will run, as close() waits for it to stop
+            started = true;
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable cause = failure;
+        if (cause == null) {
+            return;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new CompletionException(cause);
+    }
+
+    /**
+     * Stops the background task, waiting for it to finish reading the element it's currently
+     * reading, if any, so that the underlying source can then be closed safely.
+     */
+    void close() {
+        cancelled = true;
+        if (started) {
+            LockSupport.unpark(waitingProducer);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        done = true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED;
+    }
+}
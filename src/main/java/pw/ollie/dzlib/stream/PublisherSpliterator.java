@@ -0,0 +1,152 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Subscribes to a publisher and reads the elements it publishes through a bounded buffer.
+ * At most {@code bufferSize} elements are ever requested but not yet read, so a bursty
+ * publisher can't make the buffer grow; more are requested in batches as the buffer drains.
+ */
+final class PublisherSpliterator<T> implements Spliterator<T>, Flow.Subscriber<T> {
+    private static final Object COMPLETE = new Object();
+
+    private final int bufferSize;
+    private final int batchSize;
+    private final BlockingQueue<Object> buffer;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean cancelled;
+    private int consumed;
+    private boolean done;
+
+    PublisherSpliterator(int bufferSize) {
+        this.bufferSize = bufferSize;
+        this.batchSize = Math.max(1, bufferSize / 2);
+        this.buffer = new ArrayBlockingQueue<>(bufferSize + 1); // room for the terminal signal
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (cancelled) {
+            return;
+        }
+        if (!buffer.offer(item)) {
+            cancel();
+            buffer.clear();
+            onError(new IllegalStateException("publisher ignored back-pressure"));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        buffer.offer(new Failure(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        buffer.offer(COMPLETE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (done) {
+            return false;
+        }
+        Object item;
+        try {
+            item = buffer.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IllegalStateException("interrupted while waiting for the publisher", e);
+        }
+        if (item == COMPLETE) {
+            done = true;
+            return false;
+        } else if (item instanceof Failure) {
+            done = true;
+            Throwable cause = ((Failure) item).cause;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+        if (++consumed == batchSize) {
+            consumed = 0;
+            subscription.request(batchSize);
+        }
+        action.accept((T) item);
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    void cancel() {
+        cancelled = true;
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private static final class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
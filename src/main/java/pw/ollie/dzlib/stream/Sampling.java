@@ -0,0 +1,250 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import pw.ollie.dzlib.util.FastRandom;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The random samplers behind the sampling operations of {@link StreamUtil} and
+ * {@link BiStream}.
+ * <p>
+ * Rather than drawing a random number for every element, each sampler draws the number of
+ * elements to skip before the next one it takes, so the number of draws is proportional to the
+ * size of the sample.
+ */
+final class Sampling {
+    private static final Consumer<Object> DISCARD = t -> {
+    };
+
+    /**
+     * Returns a {@link FastRandom} for the {@code stream}th independent sequence from
+     * {@code seed}. The seed is scrambled with SplitMix64, which also keeps it from being zero,
+     * the one seed {@code FastRandom} can't recover from.
+     */
+    static FastRandom random(long seed, long stream) {
+        long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return new FastRandom(z == 0 ? 0x9E3779B97F4A7C15L : z);
+    }
+
+    /**
+     * Returns a uniformly distributed value strictly between zero and one, so that its
+     * logarithm is always finite.
+     */
+    static double uniform(FastRandom random) {
+        return ((random.nextLong() >>> 11) + 0.5) * 0x1.0p-53;
+    }
+
+    static int index(FastRandom random, int bound) {
+        return (int) (((random.nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * A fixed-size uniform sample of the elements accepted, kept with Li's Algorithm L.
+     * <p>
+     * Once the sample is full, {@code threshold} is the largest of the {@code k} smallest random
+     * keys the elements would have been given, and the position of the next element to enter the
+     * sample is drawn from the geometric distribution it implies.
+     */
+    static final class Reservoir<T> implements Consumer<T> {
+        private final int k;
+        private final FastRandom random;
+        private List<T> sample;
+        private long seen;
+        private long next;
+        private double threshold;
+
+        Reservoir(int k, FastRandom random) {
+            this.k = k;
+            this.random = random;
+            this.sample = new ArrayList<>(Math.min(k, 1 << 10));
+        }
+
+        @Override
+        public void accept(T element) {
+            seen++;
+            if (sample.size() < k) {
+                sample.add(element);
+                if (sample.size() == k) {
+                    threshold = Math.exp(Math.log(uniform(random)) / k);
+                    next = seen + skip();
+                }
+            } else if (seen == next) {
+                sample.set(index(random, k), element);
+                threshold *= Math.exp(Math.log(uniform(random)) / k);
+                next = seen + skip();
+            }
+        }
+
+        private long skip() {
+            double skip = Math.floor(Math.log(uniform(random)) / Math.log1p(-threshold));
+            return skip >= Long.MAX_VALUE - seen ? Long.MAX_VALUE - seen : (long) skip + 1;
+        }
+
+        /**
+         * Merges {@code that} into this, giving a uniform sample of the elements accepted by
+         * both. Each element of the merged sample is drawn from one side or the other in
+         * proportion to the number of elements that side has seen but not yet contributed.
+         * <p>
+         * A merged reservoir may only be merged again or read.
+         */
+        Reservoir<T> merge(Reservoir<T> that) {
+            if (that.seen == 0) {
+                return this;
+            } else if (seen == 0) {
+                return that;
+            }
+            List<T> left = sample;
+            List<T> right = that.sample;
+            long leftRemaining = seen;
+            long rightRemaining = that.seen;
+            List<T> merged = new ArrayList<>(Math.min(k, left.size() + right.size()));
+            while (merged.size() < k && !(left.isEmpty() && right.isEmpty())) {
+                boolean fromLeft = uniform(random) * (leftRemaining + rightRemaining) < leftRemaining;
+                if (fromLeft) {
+                    merged.add(removeRandom(left));
+                    leftRemaining--;
+                } else {
+                    merged.add(removeRandom(right));
+                    rightRemaining--;
+                }
+            }
+            sample = merged;
+            seen += that.seen;
+            next = 0;
+            return this;
+        }
+
+        private T removeRandom(List<T> list) {
+            int i = index(random, list.size());
+            T removed = list.get(i);
+            list.set(i, list.get(list.size() - 1));
+            list.remove(list.size() - 1);
+            return removed;
+        }
+
+        List<T> toList() {
+            return sample;
+        }
+    }
+
+    /**
+     * A {@link Reservoir} for every distinct key of the elements accepted, sharing one random
+     * sequence, in the order each key was first encountered.
+     */
+    static final class Stratified<K, T> implements Consumer<T> {
+        private final Function<? super T, ? extends K> keyFunction;
+        private final int k;
+        private final FastRandom random;
+        private final Map<K, Reservoir<T>> strata = new LinkedHashMap<>();
+
+        Stratified(Function<? super T, ? extends K> keyFunction, int k, FastRandom random) {
+            this.keyFunction = keyFunction;
+            this.k = k;
+            this.random = random;
+        }
+
+        @Override
+        public void accept(T element) {
+            strata.computeIfAbsent(keyFunction.apply(element), key -> new Reservoir<>(k, random)).accept(element);
+        }
+
+        Stratified<K, T> merge(Stratified<K, T> that) {
+            that.strata.forEach((key, reservoir) -> strata.merge(key, reservoir, Reservoir::merge));
+            return this;
+        }
+
+        Map<K, List<T>> toMap() {
+            Map<K, List<T>> result = new LinkedHashMap<>();
+            strata.forEach((key, reservoir) -> result.put(key, reservoir.toList()));
+            return result;
+        }
+    }
+
+    /**
+     * Takes each element of the underlying spliterator independently with probability
+     * {@code p}, by drawing the geometrically distributed number of elements to pass over
+     * before the next one taken.
+     */
+    static final class BernoulliSpliterator<T> implements Spliterator<T> {
+        private final Spliterator<T> underlying;
+        private final double p;
+        private final double logQ;
+        private final FastRandom random;
+        private long gap = -1;
+
+        BernoulliSpliterator(Spliterator<T> underlying, double p, FastRandom random) {
+            this.underlying = underlying;
+            this.p = p;
+            this.logQ = Math.log1p(-p);
+            this.random = random;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (gap < 0) {
+                double skip = Math.floor(Math.log(uniform(random)) / logQ);
+                gap = skip >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) skip;
+            }
+            for (; gap > 0; gap--) {
+                if (!underlying.tryAdvance(DISCARD)) {
+                    return false;
+                }
+            }
+            gap = -1;
+            return underlying.tryAdvance(action);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            Spliterator<T> prefix = underlying.trySplit();
+            return prefix == null ? null : new BernoulliSpliterator<>(prefix, p, Sampling.random(random.nextLong(), 0));
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = underlying.estimateSize();
+            return size == Long.MAX_VALUE ? size : (long) (size * p);
+        }
+
+        @Override
+        public int characteristics() {
+            return underlying.characteristics() & ~(SIZED | SUBSIZED);
+        }
+    }
+
+    private Sampling() {
+        throw new UnsupportedOperationException();
+    }
+}
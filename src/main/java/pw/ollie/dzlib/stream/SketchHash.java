@@ -0,0 +1,62 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+/**
+ * The 64-bit hashes sketches use by default.
+ * <p>
+ * Strings and other character sequences are hashed over all their characters, and integral
+ * numbers over their full value. Other objects only have the 32 bits of entropy in their
+ * {@code hashCode()}, which is mixed across 64 bits; for cardinalities in the hundreds of
+ * millions, sketches over such objects should be given a better hash.
+ */
+final class SketchHash {
+    static long hash(Object element) {
+        if (element instanceof CharSequence) {
+            CharSequence chars = (CharSequence) element;
+            long h = 0xCBF29CE484222325L ^ chars.length();
+            for (int i = 0; i < chars.length(); i++) {
+                h = (h ^ chars.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(h);
+        } else if (element instanceof Long || element instanceof Integer || element instanceof Short || element instanceof Byte) {
+            return mix(((Number) element).longValue());
+        }
+        return mix(element == null ? 0 : element.hashCode());
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads every input bit over the whole output.
+     */
+    static long mix(long h) {
+        h += 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private SketchHash() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent elements added to it using the Space-Saving algorithm, in a fixed
+ * {@code capacity} counters.
+ * <p>
+ * Each monitored element has a count, which is never below its true count, and an error, the
+ * most by which the count may exceed it. When an unmonitored element is added and every counter
+ * is in use, it takes over the counter with the smallest count, inheriting that count as its
+ * error. Any element occurring more than {@code 1 / capacity} of the time is guaranteed to be
+ * monitored.
+ * <p>
+ * Counters are kept in a binary min-heap, so adding an element takes {@code O(log capacity)}
+ * time. Sketches can be {@link #merge merged}, including after being {@link #write written} out
+ * and {@link #read read} back on another node.
+ *
+ * @param <T> the type of element
+ * @see StreamUtil#heavyHitters(int)
+ */
+public final class SpaceSaving<T> {
+    private static final int FORMAT = 1;
+
+    private final int capacity;
+    private final Map<T, Counter<T>> counters;
+    private final Counter<T>[] heap;
+    private int size;
+
+    /**
+     * Creates an empty sketch which monitors up to {@code capacity} elements.
+     *
+     * @throws IllegalArgumentException if {@code capacity} isn't positive
+     */
+    @SuppressWarnings("unchecked")
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException(Integer.toString(capacity));
+        this.capacity = capacity;
+        this.counters = new HashMap<>();
+        this.heap = (Counter<T>[]) new Counter<?>[capacity];
+    }
+
+    /**
+     * Returns the maximum number of elements this sketch monitors.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds {@code element} to this sketch once.
+     */
+    public void add(T element) {
+        add(element, 1);
+    }
+
+    /**
+     * Adds {@code element} to this sketch {@code count} times.
+     *
+     * @throws IllegalArgumentException if {@code count < 0}
+     */
+    public void add(T element, long count) {
+        if (count < 0) throw new IllegalArgumentException(Long.toString(count));
+        Counter<T> counter = counters.get(element);
+        if (counter != null) {
+            counter.count += count;
+            siftDown(counter.index);
+        } else if (size < capacity) {
+            insert(new Counter<>(element, count, 0));
+        } else {
+            counter = heap[0];
+            counters.remove(counter.element);
+            counter.element = element;
+            counter.error = counter.count;
+            counter.count += count;
+            counters.put(element, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns an upper bound on the number of times {@code element} was added to this sketch.
+     */
+    public long count(T element) {
+        Counter<T> counter = counters.get(element);
+        return counter != null ? counter.count : minimum();
+    }
+
+    /**
+     * Returns the most by which {@link #count} may exceed the number of times {@code element}
+     * was added to this sketch.
+     */
+    public long error(T element) {
+        Counter<T> counter = counters.get(element);
+        return counter != null ? counter.error : minimum();
+    }
+
+    /**
+     * Returns up to {@code n} of the monitored elements with the highest counts, mapped to
+     * their counts, in descending order of count.
+     */
+    public Map<T, Long> top(int n) {
+        List<Counter<T>> sorted = sortedCounters();
+        Map<T, Long> top = new LinkedHashMap<>();
+        for (Counter<T> counter : sorted.subList(0, Math.min(n, sorted.size()))) {
+            top.put(counter.element, counter.count);
+        }
+        return top;
+    }
+
+    /**
+     * Merges {@code that} into this sketch. Each element monitored by either sketch is counted
+     * with its counts in both, taking the smallest count of a full sketch for an element it
+     * doesn't monitor, and the elements with the highest combined counts are kept.
+     *
+     * @return this sketch
+     */
+    public SpaceSaving<T> merge(SpaceSaving<T> that) {
+        long thisMinimum = minimum();
+        long thatMinimum = that.minimum();
+        Map<T, Counter<T>> combined = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Counter<T> counter = heap[i];
+            Counter<T> other = that.counters.get(counter.element);
+            combined.put(counter.element, other == null
+                    ? new Counter<>(counter.element, counter.count + thatMinimum, counter.error + thatMinimum)
+                    : new Counter<>(counter.element, counter.count + other.count, counter.error + other.error));
+        }
+        for (int i = 0; i < that.size; i++) {
+            Counter<T> counter = that.heap[i];
+            if (!counters.containsKey(counter.element)) {
+                combined.put(counter.element, new Counter<>(counter.element, counter.count + thisMinimum, counter.error + thisMinimum));
+            }
+        }
+
+        List<Counter<T>> sorted = new ArrayList<>(combined.values());
+        sorted.sort(Comparator.comparingLong((Counter<T> counter) -> counter.count).reversed());
+        counters.clear();
+        size = 0;
+        for (Counter<T> counter : sorted.subList(0, Math.min(capacity, sorted.size()))) {
+            insert(counter);
+        }
+        return this;
+    }
+
+    /**
+     * Writes this sketch to {@code out}, writing each monitored element with {@code codec}.
+     *
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out, ElementCodec<? super T> codec) throws IOException {
+        out.writeByte(FORMAT);
+        out.writeInt(capacity);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            codec.write(heap[i].element, out);
+            out.writeLong(heap[i].count);
+            out.writeLong(heap[i].error);
+        }
+    }
+
+    /**
+     * Reads a sketch written by {@link #write} from {@code in}, reading each monitored element
+     * with {@code codec}.
+     *
+     * @throws IOException if reading fails, or the input isn't a sketch
+     */
+    public static <T> SpaceSaving<T> read(DataInput in, ElementCodec<? extends T> codec) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) throw new IOException("unknown SpaceSaving format " + format);
+        int capacity = in.readInt();
+        int size = in.readInt();
+        if (capacity <= 0 || size < 0 || size > capacity) {
+            throw new IOException("invalid SpaceSaving size " + size + " of " + capacity);
+        }
+        SpaceSaving<T> sketch = new SpaceSaving<>(capacity);
+        for (int i = 0; i < size; i++) {
+            sketch.insert(new Counter<>(codec.read(in), in.readLong(), in.readLong()));
+        }
+        return sketch;
+    }
+
+    private long minimum() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    private List<Counter<T>> sortedCounters() {
+        List<Counter<T>> sorted = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            sorted.add(heap[i]);
+        }
+        sorted.sort(Comparator.comparingLong((Counter<T> counter) -> counter.count).reversed());
+        return sorted;
+    }
+
+    private void insert(Counter<T> counter) {
+        counters.put(counter.element, counter);
+        heap[size] = counter;
+        counter.index = size;
+        siftUp(size++);
+    }
+
+    private void siftUp(int index) {
+        Counter<T> counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter<T> counter = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter<T> counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private static final class Counter<T> {
+        T element;
+        long count;
+        long error;
+        int index;
+
+        Counter(T element, long count, long error) {
+            this.element = element;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
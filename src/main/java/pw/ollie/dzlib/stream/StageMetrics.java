@@ -0,0 +1,76 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+/**
+ * A snapshot of the metrics of one stage of a pipeline instrumented with a
+ * {@link PipelineProbe}.
+ */
+public final class StageMetrics {
+    private final String stage;
+    private final long elementsIn;
+    private final long elementsOut;
+    private final long nanos;
+
+    StageMetrics(String stage, long elementsIn, long elementsOut, long nanos) {
+        this.stage = stage;
+        this.elementsIn = elementsIn;
+        this.elementsOut = elementsOut;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Returns the name of the stage.
+     */
+    public String stage() {
+        return stage;
+    }
+
+    /**
+     * Returns the number of elements which entered the stage.
+     */
+    public long elementsIn() {
+        return elementsIn;
+    }
+
+    /**
+     * Returns the number of elements which left the stage.
+     */
+    public long elementsOut() {
+        return elementsOut;
+    }
+
+    /**
+     * Returns the estimated cumulative time spent in the stage, in nanoseconds, extrapolated
+     * from the elements which were timed. This is zero for stages which are only counted.
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return stage + "[in=" + elementsIn + ", out=" + elementsOut + ", nanos=" + nanos + "]";
+    }
+}
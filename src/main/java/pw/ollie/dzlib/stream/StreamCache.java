@@ -0,0 +1,338 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A replayable stream, whose elements are computed once and memoized.
+ * <p>
+ * The source stream is only read as far as the streams returned by {@link #get} have been
+ * read, and each element read is appended to a chunked buffer, from which every later stream
+ * replays it. Streams read concurrently share the same fill: whichever reaches the end of the
+ * buffer first reads the next element from the source, while the others wait for it.
+ * <p>
+ * If created with a spill threshold, once more than that many elements are held in memory,
+ * the oldest full chunks are written to a temporary file and read back from there when
+ * replayed. The file is deleted when the cache is {@link #invalidate invalidated}.
+ * <p>
+ * If the source stream throws, the exception is thrown by every stream which reaches that
+ * point, until the cache is invalidated.
+ * <p>
+ * The source stream is shared by every stream returned by {@link #get}, so closing one of
+ * them doesn't close it. A source stream which hasn't been read to the end stays open until
+ * the cache is {@link #invalidate invalidated}; invalidate a cache which holds resources once
+ * it is no longer needed.
+ *
+ * @param <T> the type of element
+ * @see StreamUtil#cached(Supplier)
+ */
+public final class StreamCache<T> implements Supplier<Stream<T>> {
+    private static final int MAX_CHUNK_SIZE = 1 << 10;
+
+    private final Supplier<? extends Stream<? extends T>> source;
+    private final int maxInMemory;
+    private final ElementCodec<T> codec;
+    private volatile Fill fill;
+
+    StreamCache(Supplier<? extends Stream<? extends T>> source, int maxInMemory, ElementCodec<T> codec) {
+        this.source = source;
+        this.maxInMemory = maxInMemory;
+        this.codec = codec;
+        this.fill = new Fill();
+    }
+
+    /**
+     * Returns a sequential stream of the elements of the source stream, replaying those already
+     * read and reading the rest as it's read.
+     * <p>
+     * Closing the returned stream doesn't close the source stream, which stays open until it
+     * has been read to the end or the cache is invalidated.
+     */
+    @Override
+    public Stream<T> get() {
+        Fill current = fill;
+        return StreamSupport.stream(() -> new Replay(current), Spliterator.ORDERED, false);
+    }
+
+    /**
+     * Discards the memoized elements, so that streams returned from now on recompute them from
+     * a new source stream. The current source stream, if any, is closed, and any spilled
+     * elements are deleted, so streams returned before may fail if still being read.
+     */
+    public void invalidate() {
+        Fill old;
+        synchronized (this) {
+            old = fill;
+            fill = new Fill();
+        }
+        old.release();
+    }
+
+    /**
+     * Returns whether the source stream has been read to the end, so that the streams returned
+     * by {@link #get} only replay memoized elements.
+     */
+    public boolean isComplete() {
+        return fill.complete;
+    }
+
+    /**
+     * One generation of memoized elements, from one source stream.
+     */
+    private final class Fill implements Consumer<T> {
+        private final int chunkShift = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.min(MAX_CHUNK_SIZE, maxInMemory)));
+        private final int chunkMask = (1 << chunkShift) - 1;
+
+        // written under the lock, and published to readers by the volatile write of size
+        private volatile Chunk[] chunks = new Chunk[4];
+        private int chunkCount;
+        private volatile long size;
+        private volatile boolean complete;
+        private Throwable failure;
+
+        private Stream<? extends T> stream;
+        private Spliterator<? extends T> spliterator;
+        private FileChannel spill;
+        private long spillPosition;
+        private int firstInMemory;
+        private boolean released;
+
+        /**
+         * Reads elements from the source until there are more than {@code position}, returning
+         * false if the source ends first.
+         */
+        synchronized boolean fillPast(long position) {
+            while (size <= position) {
+                if (complete) {
+                    return false;
+                } else if (released) {
+                    throw new IllegalStateException("stream cache was invalidated");
+                }
+                try {
+                    if (spliterator == null) {
+                        stream = source.get();
+                        spliterator = stream.spliterator();
+                    }
+                    if (!spliterator.tryAdvance(this)) {
+                        finish(null);
+                    }
+                } catch (Throwable e) {
+                    finish(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void accept(T element) {
+            long index = size;
+            int chunkIndex = (int) (index >>> chunkShift);
+            Chunk[] chunks = this.chunks;
+            if (chunkIndex == chunkCount) {
+                if (chunkCount == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                    this.chunks = chunks;
+                }
+                chunks[chunkCount++] = new Chunk(new Object[chunkMask + 1]);
+            }
+            chunks[chunkIndex].elements[(int) index & chunkMask] = element;
+            size = index + 1;
+            if (codec != null && (index & chunkMask) == chunkMask) {
+                spillPast(chunkIndex);
+            }
+        }
+
+        private void spillPast(int lastFullChunk) {
+            Chunk[] chunks = this.chunks;
+            while ((long) (lastFullChunk + 1 - firstInMemory) << chunkShift > maxInMemory) {
+                Chunk chunk = chunks[firstInMemory++];
+                try {
+                    if (spill == null) {
+                        Path file = Files.createTempFile("dzlib-cache", ".spill");
+                        spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    for (Object element : chunk.elements) {
+                        @SuppressWarnings("unchecked")
+                        T t = (T) element;
+                        codec.write(t, out);
+                    }
+                    out.flush();
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                    chunk.offset = spillPosition;
+                    chunk.length = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        spillPosition += spill.write(buffer, spillPosition);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                chunk.elements = null; // publishes the offset and length
+            }
+        }
+
+        private void finish(Throwable failure) {
+            this.failure = failure;
+            complete = true; // publishes failure
+            if (stream != null) {
+                stream.close();
+                stream = null;
+            }
+            spliterator = null;
+        }
+
+        Object[] chunk(int chunkIndex) {
+            Chunk chunk = chunks[chunkIndex];
+            Object[] elements = chunk.elements;
+            if (elements != null) {
+                return elements;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(chunk.length);
+                long position = chunk.offset;
+                while (buffer.hasRemaining()) {
+                    int read = spill.read(buffer, position + buffer.position());
+                    if (read < 0) {
+                        throw new IOException("spill file truncated");
+                    }
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+                elements = new Object[chunkMask + 1];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = codec.read(in);
+                }
+                return elements;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void rethrowFailure() {
+            Throwable cause = failure;
+            if (cause == null) {
+                return;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+
+        synchronized void release() {
+            released = true;
+            if (stream != null) {
+                stream.close();
+                stream = null;
+                spliterator = null;
+            }
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A block of consecutive elements, either in memory or spilled to the fill's file.
+     */
+    private static final class Chunk {
+        volatile Object[] elements;
+        long offset;
+        int length;
+
+        Chunk(Object[] elements) {
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * Reads through a fill from the start.
+     */
+    private final class Replay implements Spliterator<T> {
+        private final Fill fill;
+        private long position;
+        private int chunkIndex = -1;
+        private Object[] chunk;
+
+        Replay(Fill fill) {
+            this.fill = fill;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (position >= fill.size && !fill.fillPast(position)) {
+                fill.rethrowFailure();
+                return false;
+            }
+            int index = (int) (position >>> fill.chunkShift);
+            if (index != chunkIndex) {
+                chunk = fill.chunk(index);
+                chunkIndex = index;
+            }
+            T element = (T) chunk[(int) position & fill.chunkMask];
+            position++;
+            action.accept(element);
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fill.complete ? fill.size - position : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED;
+        }
+    }
+}
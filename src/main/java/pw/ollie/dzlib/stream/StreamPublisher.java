@@ -0,0 +1,155 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.stream;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the elements of a stream to a single subscriber. Elements are only pulled from
+ * the stream, on {@code executor}, while the subscriber has outstanding demand, so a slow
+ * subscriber never causes elements to be buffered.
+ */
+final class StreamPublisher<T> implements Flow.Publisher<T> {
+    private final Stream<? extends T> stream;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    StreamPublisher(Stream<? extends T> stream, Executor executor) {
+        this.stream = stream;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("a stream can only be published to one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new StreamSubscription(subscriber));
+    }
+
+    private final class StreamSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * The number of times the drain loop has been asked to run, so that only one thread
+         * drains at once and no request is missed.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private Iterator<? extends T> iterator;
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+
+        StreamSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                long requested = demand.get();
+                long emitted = 0;
+                while (true) {
+                    if (cancelled) {
+                        stream.close();
+                        return;
+                    }
+                    if (badRequest != null) {
+                        terminate();
+                        subscriber.onError(badRequest);
+                        return;
+                    }
+                    if (emitted == requested) {
+                        break;
+                    }
+                    T next;
+                    try {
+                        if (iterator == null) {
+                            iterator = stream.iterator();
+                        }
+                        if (!iterator.hasNext()) {
+                            terminate();
+                            subscriber.onComplete();
+                            return;
+                        }
+                        next = iterator.next();
+                    } catch (Throwable e) {
+                        terminate();
+                        subscriber.onError(e);
+                        return;
+                    }
+                    subscriber.onNext(next);
+                    emitted++;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        private void terminate() {
+            cancelled = true;
+            stream.close();
+        }
+    }
+}
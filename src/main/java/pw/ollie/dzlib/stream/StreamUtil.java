@@ -23,16 +23,38 @@
  */
 package pw.ollie.dzlib.stream;
 
+import pw.ollie.dzlib.concurrent.ConcurrencyUtil;
 import pw.ollie.dzlib.function.CheckedConsumer;
+import pw.ollie.dzlib.function.CheckedFunction;
 
+import java.time.Duration;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
 import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -67,8 +89,8 @@ public final class StreamUtil {
     }
 
     /**
-     * Flattens {@code streamOfStream} and returns an unordered sequential stream of the nested
-     * elements.
+     * Flattens {@code streamOfStream} and returns an unordered stream of the nested elements,
+     * which is parallel if {@code streamOfStream} is.
      * <p>
      * Logically, {@code stream.flatMap(fanOut)} is equivalent to
      * {@code MoreStreams.flatten(stream.map(fanOut))}.
@@ -76,11 +98,232 @@ public final class StreamUtil {
      * {@code flatMap()} uses {@code forEach()} internally and doesn't support short-circuiting for
      * the passed-in stream. {@code flatten()} supports short-circuiting and can be used to
      * flatten infinite streams.
+     * <p>
+     * When run in parallel, the outer stream is split first. Once it can't be split any further,
+     * the inner stream currently being traversed is split instead, which is efficient when the
+     * inner streams know their size (for example streams of lists or arrays).
      *
      * @since 1.9
      */
     public static <T> Stream<T> flatten(Stream<? extends Stream<? extends T>> streamOfStream) {
-        return mapBySpliterator(streamOfStream.sequential(), 0, FlattenedSpliterator::new);
+        return mapBySpliterator(streamOfStream, 0, FlattenedSpliterator::new);
+    }
+
+    /**
+     * Merges {@code streams}, each of which must already be sorted by {@code comparator},
+     * into a single sorted stream. Elements which compare equal are returned in the order of
+     * the streams they came from.
+     * <p>
+     * The merge is lazy and sequential, and holds only one element from each stream at a
+     * time. Closing the returned stream closes every stream in {@code streams}.
+     *
+     * @see #mergeSorted(Comparator, Collection)
+     */
+    @SafeVarargs
+    public static <T> Stream<T> mergeSorted(Comparator<? super T> comparator, Stream<? extends T>... streams) {
+        // copied rather than wrapped, so that the varargs array doesn't escape
+        List<Stream<? extends T>> list = new ArrayList<>(streams.length);
+        for (Stream<? extends T> stream : streams) {
+            list.add(stream);
+        }
+        return mergeSorted(comparator, list);
+    }
+
+    /**
+     * Merges {@code streams}, each of which must already be sorted by {@code comparator},
+     * into a single sorted stream. Elements which compare equal are returned in the order of
+     * the streams they came from.
+     * <p>
+     * The streams are merged with a loser tree, so each element costs about
+     * {@code log2(streams.size())} comparisons. The merge is lazy and sequential, and holds
+     * only one element from each stream at a time, making it suitable for merging a large
+     * number of sorted partitions without materializing any of them. Closing the returned
+     * stream closes every stream in {@code streams}.
+     */
+    public static <T> Stream<T> mergeSorted(Comparator<? super T> comparator, Collection<? extends Stream<? extends T>> streams) {
+        requireNonNull(comparator);
+        List<Stream<? extends T>> sources = new ArrayList<>(streams);
+        sources.forEach(Objects::requireNonNull);
+        if (sources.isEmpty()) {
+            return Stream.empty();
+        }
+        Stream<T> merged = StreamSupport.stream(() -> {
+            List<Iterator<? extends T>> iterators = new ArrayList<>(sources.size());
+            for (Stream<? extends T> source : sources) {
+                iterators.add(source.iterator());
+            }
+            return Spliterators.spliteratorUnknownSize(new LoserTree<>(comparator, iterators), Spliterator.ORDERED);
+        }, Spliterator.ORDERED, false);
+        for (Stream<? extends T> source : sources) {
+            merged = merged.onClose(source::close);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns a sequential stream of the results of applying the asynchronous function
+     * {@code mapper} to the elements of {@code stream}, with up to {@code maxInFlight} results
+     * pending at once. Elements are only read from {@code stream} while fewer than
+     * {@code maxInFlight} results are pending, so a slow {@code mapper} holds back reading
+     * rather than building a backlog.
+     * <p>
+     * If {@code ordered}, results are returned in the order of the elements they were mapped
+     * from; otherwise they're returned as they complete, so one slow result doesn't hold back
+     * the rest. If a result fails, its exception is thrown from the stream and the other
+     * pending results are cancelled, as they are when the stream is closed.
+     *
+     * @param stream      the source stream
+     * @param mapper      starts mapping an element, returning the pending result
+     * @param maxInFlight the maximum number of pending results
+     * @param ordered     whether to return results in encounter order
+     * @return Stream of the mapped results
+     * @throws IllegalArgumentException if {@code maxInFlight <= 0}
+     */
+    public static <T, R> Stream<R> mapAsync(Stream<? extends T> stream, Function<? super T, ? extends CompletionStage<? extends R>> mapper, int maxInFlight, boolean ordered) {
+        requireNonNull(stream);
+        requireNonNull(mapper);
+        if (maxInFlight <= 0) throw new IllegalArgumentException(Integer.toString(maxInFlight));
+        AtomicReference<AsyncMappingSpliterator<T, R>> started = new AtomicReference<>();
+        Stream<R> mapped = StreamSupport.stream(() -> {
+            AsyncMappingSpliterator<T, R> spliterator = new AsyncMappingSpliterator<>(stream.spliterator(), mapper, maxInFlight, ordered);
+            started.set(spliterator);
+            return spliterator;
+        }, ordered ? Spliterator.ORDERED : 0, false);
+        return mapped.onClose(() -> {
+            AsyncMappingSpliterator<T, R> spliterator = started.get();
+            if (spliterator != null) {
+                spliterator.cancel();
+            }
+        }).onClose(stream::close);
+    }
+
+    /**
+     * Returns a sequential stream of the results of applying the blocking function
+     * {@code mapper} to the elements of {@code stream}, running up to {@code maxInFlight}
+     * invocations at once on {@link ConcurrencyUtil#blockingExecutor()}, which uses virtual
+     * threads where the runtime supports them.
+     *
+     * @see #mapAsync(Stream, Function, int, boolean)
+     */
+    public static <T, R> Stream<R> mapConcurrently(Stream<? extends T> stream, Function<? super T, ? extends R> mapper, int maxInFlight, boolean ordered) {
+        requireNonNull(mapper);
+        Executor executor = ConcurrencyUtil.blockingExecutor();
+        return mapAsync(stream, element -> CompletableFuture.supplyAsync(() -> mapper.apply(element), executor), maxInFlight, ordered);
+    }
+
+    /**
+     * Returns a {@link Flow.Publisher} of the elements of {@code stream}, which can be
+     * subscribed to once. Elements are pulled from {@code stream} on {@code executor} only as
+     * the subscriber requests them, so {@code stream} is read no faster than the subscriber
+     * consumes it. {@code stream} is closed once it's exhausted, fails, or the subscription is
+     * cancelled.
+     *
+     * @param stream   the stream to publish
+     * @param executor the executor to read {@code stream} and signal the subscriber on
+     * @return a publisher of the elements of {@code stream}
+     */
+    public static <T> Flow.Publisher<T> toPublisher(Stream<? extends T> stream, Executor executor) {
+        requireNonNull(stream);
+        requireNonNull(executor);
+        return new StreamPublisher<>(stream, executor);
+    }
+
+    /**
+     * Returns a sequential stream of the elements published by {@code publisher}, which is
+     * subscribed to when the stream is first read. At most {@code bufferSize} elements are
+     * requested from {@code publisher} ahead of the stream being read, and more are
+     * requested in batches as it is read, so memory use is bounded however bursty
+     * {@code publisher} is. Reading the stream blocks while the buffer is empty.
+     * <p>
+     * An error signalled by {@code publisher} is thrown from the stream when it's reached, and
+     * closing the stream cancels the subscription.
+     *
+     * @param publisher  the publisher to subscribe to
+     * @param bufferSize the maximum number of elements to buffer
+     * @return Stream of the published elements
+     * @throws IllegalArgumentException if {@code bufferSize <= 0}
+     */
+    public static <T> Stream<T> fromPublisher(Flow.Publisher<? extends T> publisher, int bufferSize) {
+        requireNonNull(publisher);
+        if (bufferSize <= 0) throw new IllegalArgumentException(Integer.toString(bufferSize));
+        PublisherSpliterator<T> spliterator = new PublisherSpliterator<>(bufferSize);
+        return StreamSupport.stream(() -> {
+            publisher.subscribe(spliterator);
+            return spliterator;
+        }, Spliterator.ORDERED | Spliterator.NONNULL, false).onClose(spliterator::cancel);
+    }
+
+    /**
+     * Returns a sequential stream of the elements of {@code stream}, which are read ahead on a
+     * background thread from {@link ConcurrencyUtil#blockingExecutor()} into a buffer of up to
+     * {@code bufferSize} elements, so that reading {@code stream} overlaps with consuming the
+     * returned stream.
+     *
+     * @see #prefetch(Stream, int, Executor)
+     */
+    public static <T> Stream<T> prefetch(Stream<? extends T> stream, int bufferSize) {
+        return prefetch(stream, bufferSize, ConcurrencyUtil.blockingExecutor());
+    }
+
+    /**
+     * Returns a sequential stream of the elements of {@code stream}, which are read ahead on
+     * {@code executor} into a buffer of up to {@code bufferSize} elements, so that reading
+     * {@code stream} overlaps with consuming the returned stream. This suits sources which
+     * block on I/O, such as the lines of a file.
+     * <p>
+     * Reading ahead starts when the returned stream is first read, and pauses while the buffer
+     * is full. An exception thrown reading {@code stream} is thrown from the returned stream
+     * once the elements read before it have been consumed. Closing the returned stream stops
+     * reading ahead, waiting for the element currently being read, if any, and then closes
+     * {@code stream}; if the returned stream isn't read to the end, it should be closed so that
+     * the background task doesn't stay blocked on a full buffer.
+     *
+     * @param stream     the source stream
+     * @param bufferSize the maximum number of elements to read ahead
+     * @param executor   runs the task reading {@code stream}
+     * @return Stream of the elements of {@code stream}
+     * @throws IllegalArgumentException if {@code bufferSize <= 0}
+     */
+    public static <T> Stream<T> prefetch(Stream<? extends T> stream, int bufferSize, Executor executor) {
+        requireNonNull(stream);
+        requireNonNull(executor);
+        if (bufferSize <= 0) throw new IllegalArgumentException(Integer.toString(bufferSize));
+        PrefetchSpliterator<T> spliterator = new PrefetchSpliterator<>(stream::spliterator, bufferSize, executor);
+        return StreamSupport.stream(() -> spliterator, Spliterator.ORDERED, false)
+                .onClose(spliterator::close)
+                .onClose(stream::close);
+    }
+
+    /**
+     * Returns a replayable stream of the elements of the streams from {@code source}, which are
+     * memoized in memory as they're first read, so that {@code source} is only called again
+     * once the cache is {@link StreamCache#invalidate invalidated}.
+     *
+     * @param source supplies the stream to memoize
+     * @return a supplier of streams replaying the memoized elements
+     */
+    public static <T> StreamCache<T> cached(Supplier<? extends Stream<? extends T>> source) {
+        requireNonNull(source);
+        return new StreamCache<>(source, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Returns a replayable stream of the elements of the streams from {@code source}, which are
+     * memoized as they're first read. Once more than {@code maxInMemory} elements are held in
+     * memory, the oldest are written to a temporary file with {@code codec}, and read back from
+     * it when replayed.
+     *
+     * @param source      supplies the stream to memoize
+     * @param maxInMemory the maximum number of elements to hold in memory
+     * @param codec       writes and reads back spilled elements
+     * @return a supplier of streams replaying the memoized elements
+     * @throws IllegalArgumentException if {@code maxInMemory <= 0}
+     */
+    public static <T> StreamCache<T> cached(Supplier<? extends Stream<? extends T>> source, int maxInMemory, ElementCodec<T> codec) {
+        requireNonNull(source);
+        requireNonNull(codec);
+        if (maxInMemory <= 0) throw new IllegalArgumentException(Integer.toString(maxInMemory));
+        return new StreamCache<>(source, maxInMemory, codec);
     }
 
     /**
@@ -132,6 +375,87 @@ public final class StreamUtil {
         }
     }
 
+    /**
+     * Passes each element of {@code stream} to {@code consumer} in parallel on
+     * {@link ConcurrencyUtil#blockingExecutor()}, with at most {@code maxParallelism} elements
+     * being consumed at once, and returns a summary of the outcome.
+     *
+     * @see #forEachParallel(Stream, CheckedConsumer, int, boolean, Executor)
+     */
+    public static <T, E extends Throwable> ExecutionSummary<Void, E> forEachParallel(Stream<? extends T> stream, CheckedConsumer<? super T, E> consumer, int maxParallelism, boolean failFast) {
+        return forEachParallel(stream, consumer, maxParallelism, failFast, ConcurrencyUtil.blockingExecutor());
+    }
+
+    /**
+     * Passes each element of {@code stream} to {@code consumer} in parallel on
+     * {@code executor}, with at most {@code maxParallelism} elements being consumed at once, and
+     * returns a summary of the outcome. This is the parallel counterpart of
+     * {@link #iterateThrough iterateThrough()}. For example:
+     *
+     * <pre>{@code
+     *   forEachParallel(files.stream(), Files::delete, 8, false, executor).throwIfFailed();
+     * }</pre>
+     * <p>
+     * {@code stream} is read on the calling thread, which returns once every element read has
+     * finished. If {@code failFast}, the first failure stops {@code stream} being read and
+     * cancels the elements still pending or running, interrupting those running; otherwise
+     * every element is consumed, and failures are collected in the summary.
+     *
+     * @param stream         the source stream
+     * @param consumer       consumes each element
+     * @param maxParallelism the maximum number of elements to consume at once
+     * @param failFast       whether to stop at the first failure
+     * @param executor       runs the consumer
+     * @return a summary of the outcome
+     * @throws IllegalArgumentException if {@code maxParallelism <= 0}
+     */
+    public static <T, E extends Throwable> ExecutionSummary<Void, E> forEachParallel(Stream<? extends T> stream, CheckedConsumer<? super T, E> consumer, int maxParallelism, boolean failFast, Executor executor) {
+        requireNonNull(consumer);
+        CheckedFunction<T, Void, E> function = t -> {
+            consumer.accept(t);
+            return null;
+        };
+        return runParallel(stream, function, maxParallelism, failFast, false, executor);
+    }
+
+    /**
+     * Applies {@code function} to each element of {@code stream} in parallel on
+     * {@link ConcurrencyUtil#blockingExecutor()}, with at most {@code maxParallelism} elements
+     * being mapped at once, and returns a summary of the outcome including the results.
+     *
+     * @see #mapParallel(Stream, CheckedFunction, int, boolean, Executor)
+     */
+    public static <T, R, E extends Throwable> ExecutionSummary<R, E> mapParallel(Stream<? extends T> stream, CheckedFunction<? super T, ? extends R, E> function, int maxParallelism, boolean failFast) {
+        return mapParallel(stream, function, maxParallelism, failFast, ConcurrencyUtil.blockingExecutor());
+    }
+
+    /**
+     * Applies {@code function} to each element of {@code stream} in parallel on
+     * {@code executor}, with at most {@code maxParallelism} elements being mapped at once, and
+     * returns a summary of the outcome, whose {@link ExecutionSummary#results results} are those
+     * of the elements which succeeded, in encounter order. Failures are handled as described for
+     * {@link #forEachParallel(Stream, CheckedConsumer, int, boolean, Executor)}.
+     *
+     * @param stream         the source stream
+     * @param function       maps each element
+     * @param maxParallelism the maximum number of elements to map at once
+     * @param failFast       whether to stop at the first failure
+     * @param executor       runs the function
+     * @return a summary of the outcome
+     * @throws IllegalArgumentException if {@code maxParallelism <= 0}
+     */
+    public static <T, R, E extends Throwable> ExecutionSummary<R, E> mapParallel(Stream<? extends T> stream, CheckedFunction<? super T, ? extends R, E> function, int maxParallelism, boolean failFast, Executor executor) {
+        requireNonNull(function);
+        return runParallel(stream, function, maxParallelism, failFast, true, executor);
+    }
+
+    private static <T, R, E extends Throwable> ExecutionSummary<R, E> runParallel(Stream<? extends T> stream, CheckedFunction<? super T, ? extends R, E> function, int maxParallelism, boolean failFast, boolean keepResults, Executor executor) {
+        requireNonNull(stream);
+        requireNonNull(executor);
+        if (maxParallelism <= 0) throw new IllegalArgumentException(Integer.toString(maxParallelism));
+        return new ParallelExecution<T, R, E>(function, maxParallelism, failFast, keepResults, executor).run(stream);
+    }
+
     /**
      * Dices {@code stream} into smaller chunks each with up to {@code maxSize} elements.
      * <p>
@@ -169,6 +493,327 @@ public final class StreamUtil {
         return new DicedSpliterator<T>(spliterator, maxSize);
     }
 
+    /**
+     * Dices {@code list} into consecutive chunks each with up to {@code maxSize} elements.
+     * Every chunk except the last has exactly {@code maxSize} elements, including when the
+     * returned stream is run in parallel, because it splits only on chunk boundaries.
+     * <p>
+     * Rather than copying, each chunk is a {@link List#subList subList()} view of
+     * {@code list}, so this is intended for random access lists such as {@code ArrayList}s
+     * and arrays wrapped with {@link Arrays#asList}, which mustn't be structurally modified
+     * while the stream is in use.
+     *
+     * @param list    the source list to be diced
+     * @param maxSize the maximum size for each chunk
+     * @return Stream of diced chunks each being a view of up to {@code maxSize} elements
+     * @throws IllegalArgumentException if {@code maxSize <= 0}
+     */
+    public static <T> Stream<List<T>> dice(List<T> list, int maxSize) {
+        requireNonNull(list);
+        if (maxSize <= 0) throw new IllegalArgumentException();
+        int chunks = list.size() / maxSize + (list.size() % maxSize == 0 ? 0 : 1);
+        return StreamSupport.stream(new SubListSpliterator<>(list, maxSize, 0, chunks), false);
+    }
+
+    /**
+     * Dices {@code stream} into smaller chunks, adapting the size of each chunk so that
+     * processing it takes about {@code targetTime}. The time taken to process a chunk is
+     * measured from when it's handed downstream until the next chunk is requested, and the
+     * next chunk is sized in proportion, growing or shrinking by at most a factor of two at a
+     * time and never exceeding {@code maxSize}.
+     * <p>
+     * The first chunk has {@code maxSize} elements. When run in parallel, each split of the
+     * stream adapts its chunk size independently.
+     *
+     * @param stream     the source stream to be diced
+     * @param maxSize    the maximum size for each chunk
+     * @param targetTime the time processing each chunk should take
+     * @return Stream of diced chunks each being a list of size up to {@code maxSize}
+     * @throws IllegalArgumentException if {@code maxSize <= 0} or {@code targetTime} isn't positive
+     */
+    public static <T> Stream<List<T>> dice(Stream<? extends T> stream, int maxSize, Duration targetTime) {
+        requireNonNull(stream);
+        if (maxSize <= 0) throw new IllegalArgumentException();
+        if (targetTime.isNegative() || targetTime.isZero()) throw new IllegalArgumentException(targetTime.toString());
+        long targetNanos = targetTime.toNanos();
+        return mapBySpliterator(stream, Spliterator.NONNULL, it -> new AdaptiveDicedSpliterator<T>(it, maxSize, maxSize, targetNanos));
+    }
+
+    /**
+     * Returns a stream of the windows of {@code size} consecutive elements of {@code stream},
+     * each starting {@code step} elements after the previous one. For example,
+     * {@code sliding(Stream.of(1, 2, 3, 4, 5), 3, 1)} returns {@code [1, 2, 3], [2, 3, 4],
+     * [3, 4, 5]}. Only full windows are returned, so a stream of fewer than {@code size}
+     * elements has no windows; if {@code step > size}, the elements between windows are
+     * skipped.
+     * <p>
+     * The windows are read-only views of a ring buffer which is shared by every window, so
+     * each is only valid until the next one is read. Copy a window, for example with
+     * {@code new ArrayList<>(window)}, to keep it. The returned stream is sequential.
+     *
+     * @param stream the source stream
+     * @param size   the number of elements in each window
+     * @param step   the number of elements between the starts of consecutive windows
+     * @return Stream of windows, each being a view of {@code size} elements
+     * @throws IllegalArgumentException if {@code size <= 0} or {@code step <= 0}
+     */
+    public static <T> Stream<List<T>> sliding(Stream<? extends T> stream, int size, int step) {
+        requireNonNull(stream);
+        if (size <= 0) throw new IllegalArgumentException(Integer.toString(size));
+        if (step <= 0) throw new IllegalArgumentException(Integer.toString(step));
+        return mapBySpliterator(stream, Spliterator.ORDERED | Spliterator.NONNULL, it -> new SlidingSpliterator<T>(it, size, step)).sequential();
+    }
+
+    /**
+     * Returns a stream of the runs of consecutive elements of {@code stream} which have equal
+     * keys according to {@code keyFunction}. For example,
+     * {@code tumblingByKey(Stream.of("a", "b", "cc", "d"), String::length)} returns
+     * {@code [a, b], [cc], [d]}.
+     * <p>
+     * The windows are read-only views of a buffer which is shared by every window, so each
+     * is only valid until the next one is read. The returned stream is sequential.
+     *
+     * @param stream      the source stream
+     * @param keyFunction returns the key of an element
+     * @return Stream of windows of consecutive elements with equal keys
+     */
+    public static <T> Stream<List<T>> tumblingByKey(Stream<? extends T> stream, Function<? super T, ?> keyFunction) {
+        requireNonNull(keyFunction);
+        return tumbling(stream, new SameKey<T>(keyFunction));
+    }
+
+    /**
+     * Returns a stream of the runs of consecutive elements of {@code stream} for which
+     * {@code sameWindow} holds between each element and the one before it. A new window
+     * starts at each element for which {@code sameWindow.test(previous, element)} is false.
+     * <p>
+     * The windows are read-only views of a buffer which is shared by every window, so each
+     * is only valid until the next one is read. The returned stream is sequential.
+     *
+     * @param stream     the source stream
+     * @param sameWindow tests whether an element belongs in the same window as the one before it
+     * @return Stream of windows of consecutive elements
+     */
+    public static <T> Stream<List<T>> tumbling(Stream<? extends T> stream, BiPredicate<? super T, ? super T> sameWindow) {
+        requireNonNull(stream);
+        requireNonNull(sameWindow);
+        return mapBySpliterator(stream, Spliterator.ORDERED | Spliterator.NONNULL, it -> new TumblingSpliterator<T>(it, sameWindow)).sequential();
+    }
+
+    /**
+     * Returns a stream of the session windows of {@code stream}, whose elements must be in
+     * timestamp order: a new window starts at each element whose timestamp is more than
+     * {@code gap} after that of the element before it.
+     * <p>
+     * The windows are read-only views of a buffer which is shared by every window, so each
+     * is only valid until the next one is read. The returned stream is sequential.
+     *
+     * @param stream    the source stream, in timestamp order
+     * @param timestamp returns the timestamp of an element, in milliseconds
+     * @param gap       the longest gap between consecutive elements within a session
+     * @return Stream of session windows
+     */
+    public static <T> Stream<List<T>> sessions(Stream<? extends T> stream, ToLongFunction<? super T> timestamp, Duration gap) {
+        requireNonNull(timestamp);
+        long maxGap = gap.toMillis();
+        return tumbling(stream, (previous, next) -> timestamp.applyAsLong(next) - timestamp.applyAsLong(previous) <= maxGap);
+    }
+
+    /**
+     * Returns a stream of the first {@code k} elements of {@code stream} in the order of
+     * {@code comparator}, sorted. This is equivalent to
+     * {@code stream.sorted(comparator).limit(k)}, except that elements which compare equal
+     * may be chosen in any order.
+     * <p>
+     * Rather than sorting the whole stream, a heap of the best {@code k} elements seen so far
+     * is kept (one per parallel leaf, merged at the end), which takes {@code O(n log k)} time
+     * and {@code O(k)} memory. {@code stream} is read in full when the returned stream is
+     * first read.
+     *
+     * @param stream     the source stream
+     * @param k          the maximum number of elements to return
+     * @param comparator the order of elements
+     * @return Stream of up to {@code k} elements, sorted by {@code comparator}
+     * @throws IllegalArgumentException if {@code k < 0}
+     */
+    public static <T> Stream<T> topK(Stream<T> stream, int k, Comparator<? super T> comparator) {
+        requireNonNull(stream);
+        Collector<T, ?, List<T>> collector = topK(k, comparator);
+        return StreamSupport.stream(() -> stream.collect(collector).spliterator(), Spliterator.ORDERED | Spliterator.SIZED, false)
+                .onClose(stream::close);
+    }
+
+    /**
+     * Returns a collector of the first {@code k} input elements in the order of
+     * {@code comparator}, into a list sorted by {@code comparator}. Elements which compare
+     * equal may be chosen in any order.
+     * <p>
+     * The collector keeps a bounded heap of the best {@code k} elements seen so far, and
+     * heaps collected in parallel are merged by offering the elements of the smaller to the
+     * larger.
+     *
+     * @param k          the maximum number of elements to collect
+     * @param comparator the order of elements
+     * @return a collector of up to {@code k} elements, sorted by {@code comparator}
+     * @throws IllegalArgumentException if {@code k < 0}
+     */
+    public static <T> Collector<T, ?, List<T>> topK(int k, Comparator<? super T> comparator) {
+        requireNonNull(comparator);
+        if (k < 0) throw new IllegalArgumentException(Integer.toString(k));
+        return Collector.of(() -> new BoundedHeap<T>(k, comparator), BoundedHeap::offer, BoundedHeap::merge, BoundedHeap::toSortedList);
+    }
+
+    /**
+     * Returns a stream of a uniform random sample of up to {@code k} elements of
+     * {@code stream}, in no particular order. If {@code stream} has {@code k} or fewer
+     * elements, all of them are returned.
+     *
+     * @param stream the source stream
+     * @param k      the maximum number of elements to sample
+     * @param seed   the seed of the random sequence
+     * @return Stream of up to {@code k} sampled elements
+     * @throws IllegalArgumentException if {@code k < 0}
+     * @see #sampling(int, long)
+     */
+    public static <T> Stream<T> sample(Stream<T> stream, int k, long seed) {
+        requireNonNull(stream);
+        Collector<T, ?, List<T>> collector = sampling(k, seed);
+        return StreamSupport.stream(() -> stream.collect(collector).spliterator(), Spliterator.SIZED, false)
+                .onClose(stream::close);
+    }
+
+    /**
+     * Returns a collector of a uniform random sample of up to {@code k} input elements, in no
+     * particular order.
+     * <p>
+     * The collector keeps a reservoir of {@code k} elements using Algorithm L, which draws
+     * random numbers only for the elements that enter the reservoir rather than for every
+     * element, and takes {@code O(k)} memory. Reservoirs collected in parallel are merged into
+     * a uniform sample of their union. Each reservoir draws from its own random sequence derived
+     * from {@code seed}, so a sequential stream collected with a new collector gives the same
+     * sample for the same seed and input.
+     *
+     * @param k    the maximum number of elements to sample
+     * @param seed the seed of the random sequence
+     * @return a collector of up to {@code k} sampled elements
+     * @throws IllegalArgumentException if {@code k < 0}
+     */
+    public static <T> Collector<T, ?, List<T>> sampling(int k, long seed) {
+        if (k < 0) throw new IllegalArgumentException(Integer.toString(k));
+        AtomicLong reservoirs = new AtomicLong();
+        return Collector.of(() -> new Sampling.Reservoir<T>(k, Sampling.random(seed, reservoirs.getAndIncrement())),
+                Sampling.Reservoir::accept, Sampling.Reservoir::merge, Sampling.Reservoir::toList,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Returns a collector of a uniform random sample of up to {@code k} input elements for
+     * every distinct key produced by {@code keyFunction}, into a map in the order each key was
+     * first encountered. Each sample is kept as described for {@link #sampling(int, long)},
+     * so a sequential stream gives the same samples for the same seed and input.
+     *
+     * @param keyFunction extracts the stratum of each element
+     * @param k           the maximum number of elements to sample per stratum
+     * @param seed        the seed of the random sequence
+     * @return a collector of up to {@code k} sampled elements per stratum
+     * @throws IllegalArgumentException if {@code k < 0}
+     */
+    public static <T, K> Collector<T, ?, Map<K, List<T>>> stratifiedSampling(Function<? super T, ? extends K> keyFunction, int k, long seed) {
+        requireNonNull(keyFunction);
+        if (k < 0) throw new IllegalArgumentException(Integer.toString(k));
+        AtomicLong strata = new AtomicLong();
+        return Collector.of(() -> new Sampling.Stratified<K, T>(keyFunction, k, Sampling.random(seed, strata.getAndIncrement())),
+                Sampling.Stratified::accept, Sampling.Stratified::merge, Sampling.Stratified::toMap);
+    }
+
+    /**
+     * Returns a stream of the elements of {@code stream}, each included independently with
+     * probability {@code p}, in encounter order.
+     * <p>
+     * Rather than drawing a random number for every element, the number of elements to pass
+     * over before the next one included is drawn from a geometric distribution. The returned
+     * stream splits with {@code stream}, each split drawing from its own random sequence; a
+     * sequential stream gives the same sample for the same seed and input.
+     *
+     * @param stream the source stream
+     * @param p      the probability of including each element
+     * @param seed   the seed of the random sequence
+     * @return Stream of the sampled elements
+     * @throws IllegalArgumentException if {@code p} isn't between 0 and 1
+     */
+    public static <T> Stream<T> sampleBernoulli(Stream<T> stream, double p, long seed) {
+        requireNonNull(stream);
+        if (!(p >= 0 && p <= 1)) throw new IllegalArgumentException(Double.toString(p));
+        if (p == 0) {
+            return stream.filter(t -> false);
+        } else if (p == 1) {
+            return stream;
+        }
+        return mapBySpliterator(stream, Spliterator.ORDERED, it -> new Sampling.BernoulliSpliterator<>(it, p, Sampling.random(seed, 0)));
+    }
+
+    /**
+     * Returns a collector into a {@link HyperLogLog} sketch of the given precision, estimating
+     * the number of distinct input elements in {@code 2^precision} bytes of memory. Sketches
+     * collected in parallel are merged.
+     *
+     * @param precision the number of bits of each hash used to pick a register
+     * @return a collector into a distinct count sketch
+     * @throws IllegalArgumentException if {@code precision} isn't between 4 and 18
+     */
+    public static <T> Collector<T, ?, HyperLogLog> distinctCountSketch(int precision) {
+        return distinctCountSketch(precision, SketchHash::hash);
+    }
+
+    /**
+     * Returns a collector into a {@link HyperLogLog} sketch of the given precision, adding
+     * each input element by the 64-bit hash given by {@code hash}.
+     *
+     * @param precision the number of bits of each hash used to pick a register
+     * @param hash      the 64-bit hash of each element
+     * @return a collector into a distinct count sketch
+     * @throws IllegalArgumentException if {@code precision} isn't between 4 and 18
+     */
+    public static <T> Collector<T, ?, HyperLogLog> distinctCountSketch(int precision, ToLongFunction<? super T> hash) {
+        requireNonNull(hash);
+        HyperLogLog.checkPrecision(precision);
+        return Collector.of(() -> new HyperLogLog(precision), (sketch, t) -> sketch.addHash(hash.applyAsLong(t)), HyperLogLog::merge,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Returns a collector into a {@link CountMinSketch} of the frequencies of the input
+     * elements, whose estimates exceed the true frequency by at most {@code epsilon} of the
+     * number of elements, with probability {@code confidence}. Sketches collected in parallel
+     * are merged.
+     *
+     * @param epsilon    the maximum error, as a fraction of the number of elements
+     * @param confidence the probability that an estimate is within the maximum error
+     * @return a collector into a frequency sketch
+     * @throws IllegalArgumentException if {@code epsilon} isn't positive, or
+     *                                  {@code confidence} isn't between 0 and 1 exclusive
+     * @see CountMinSketch#withErrorBounds
+     */
+    public static <T> Collector<T, ?, CountMinSketch> frequencySketch(double epsilon, double confidence) {
+        CountMinSketch.withErrorBounds(epsilon, confidence); // fail fast on invalid bounds
+        return Collector.of(() -> CountMinSketch.withErrorBounds(epsilon, confidence), CountMinSketch::add, CountMinSketch::merge,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Returns a collector into a {@link SpaceSaving} sketch of the most frequent input
+     * elements, monitoring up to {@code capacity} elements. Sketches collected in parallel are
+     * merged.
+     *
+     * @param capacity the maximum number of elements to monitor
+     * @return a collector into a heavy hitters sketch
+     * @throws IllegalArgumentException if {@code capacity} isn't positive
+     */
+    public static <T> Collector<T, ?, SpaceSaving<T>> heavyHitters(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException(Integer.toString(capacity));
+        return Collector.of(() -> new SpaceSaving<T>(capacity), SpaceSaving::add, SpaceSaving::merge, Collector.Characteristics.UNORDERED);
+    }
+
     /**
      * Returns a collector that collects/merges {@link Map} instances by key, using {@code valueMerger}
      * to merge values that are mapped to the same key. For example:
@@ -229,6 +874,46 @@ public final class StreamUtil {
         return it == null ? null : wrapper.apply(it);
     }
 
+    /**
+     * Keeps the first {@code k} elements offered to it, in the order of {@code comparator}.
+     * The heap is ordered in reverse, so the worst element kept is at its head and is the one
+     * to beat.
+     */
+    private static final class BoundedHeap<T> {
+        private final int k;
+        private final Comparator<? super T> comparator;
+        private final PriorityQueue<T> heap;
+
+        BoundedHeap(int k, Comparator<? super T> comparator) {
+            this.k = k;
+            this.comparator = comparator;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1 << 10)), comparator.reversed());
+        }
+
+        void offer(T element) {
+            if (heap.size() < k) {
+                heap.add(element);
+            } else if (k > 0 && comparator.compare(element, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(element);
+            }
+        }
+
+        BoundedHeap<T> merge(BoundedHeap<T> that) {
+            if (heap.size() < that.heap.size()) {
+                return that.merge(this);
+            }
+            that.heap.forEach(this::offer);
+            return this;
+        }
+
+        List<T> toSortedList() {
+            List<T> result = new ArrayList<>(heap);
+            result.sort(comparator);
+            return result;
+        }
+    }
+
     private static final class DicedSpliterator<T> implements Spliterator<List<T>> {
         private final Spliterator<? extends T> underlying;
         private final int maxSize;
@@ -284,7 +969,265 @@ public final class StreamUtil {
         }
     }
 
+    private static final class SlidingSpliterator<T> implements Spliterator<List<T>>, Consumer<T> {
+        private final Spliterator<? extends T> underlying;
+        private final int step;
+        private final Object[] ring;
+        private final List<T> window = new RingView();
+        private int start;
+        private int count;
+        private boolean started;
+
+        SlidingSpliterator(Spliterator<? extends T> underlying, int size, int step) {
+            this.underlying = requireNonNull(underlying);
+            this.step = step;
+            this.ring = new Object[size];
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            requireNonNull(action);
+            if (started) {
+                int dropped = Math.min(step, count);
+                for (int i = 0; i < dropped; i++) {
+                    ring[(start + i) % ring.length] = null;
+                }
+                start = (start + dropped) % ring.length;
+                count -= dropped;
+                for (int i = dropped; i < step; i++) {
+                    if (!underlying.tryAdvance(e -> {
+                    })) {
+                        return false;
+                    }
+                }
+            }
+            started = true;
+            while (count < ring.length && underlying.tryAdvance(this)) {
+            }
+            if (count < ring.length) return false;
+            action.accept(window);
+            return true;
+        }
+
+        @Override
+        public void accept(T element) {
+            ring[(start + count) % ring.length] = element;
+            count++;
+        }
+
+        @Override
+        public Spliterator<List<T>> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+
+        private final class RingView extends AbstractList<T> implements RandomAccess {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get(int index) {
+                Objects.checkIndex(index, count);
+                return (T) ring[(start + index) % ring.length];
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        }
+    }
+
+    private static final class TumblingSpliterator<T> implements Spliterator<List<T>>, Consumer<T> {
+        private final Spliterator<? extends T> underlying;
+        private final BiPredicate<? super T, ? super T> sameWindow;
+        private final List<T> buffer = new ArrayList<>();
+        private final List<T> window = Collections.unmodifiableList(buffer);
+        private T next;
+        private boolean hasNext;
+
+        TumblingSpliterator(Spliterator<? extends T> underlying, BiPredicate<? super T, ? super T> sameWindow) {
+            this.underlying = requireNonNull(underlying);
+            this.sameWindow = sameWindow;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            requireNonNull(action);
+            buffer.clear();
+            if (!hasNext && !underlying.tryAdvance(this)) {
+                return false;
+            }
+            T last = next;
+            buffer.add(last);
+            hasNext = false;
+            while (underlying.tryAdvance(this)) {
+                if (!sameWindow.test(last, next)) {
+                    hasNext = true;
+                    break;
+                }
+                last = next;
+                buffer.add(last);
+            }
+            action.accept(window);
+            return true;
+        }
+
+        @Override
+        public void accept(T element) {
+            next = element;
+        }
+
+        @Override
+        public Spliterator<List<T>> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * Tests whether consecutive elements have equal keys. Each element is passed as
+     * {@code next} and then as {@code previous}, so the key of {@code next} is remembered to
+     * compute each key only once.
+     */
+    private static final class SameKey<T> implements BiPredicate<T, T> {
+        private final Function<? super T, ?> keyFunction;
+        private T last;
+        private Object lastKey;
+        private boolean hasLast;
+
+        SameKey(Function<? super T, ?> keyFunction) {
+            this.keyFunction = keyFunction;
+        }
+
+        @Override
+        public boolean test(T previous, T next) {
+            Object previousKey = hasLast && previous == last ? lastKey : keyFunction.apply(previous);
+            last = next;
+            lastKey = keyFunction.apply(next);
+            hasLast = true;
+            return Objects.equals(previousKey, lastKey);
+        }
+    }
+
+    private static final class SubListSpliterator<T> implements Spliterator<List<T>> {
+        private final List<T> list;
+        private final int chunkSize;
+        private int chunk;
+        private final int endChunk;
+
+        SubListSpliterator(List<T> list, int chunkSize, int chunk, int endChunk) {
+            this.list = list;
+            this.chunkSize = chunkSize;
+            this.chunk = chunk;
+            this.endChunk = endChunk;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            requireNonNull(action);
+            if (chunk >= endChunk) return false;
+            int from = chunk++ * chunkSize;
+            action.accept(list.subList(from, Math.min(from + chunkSize, list.size())));
+            return true;
+        }
+
+        @Override
+        public Spliterator<List<T>> trySplit() {
+            int mid = (chunk + endChunk) >>> 1;
+            if (mid <= chunk) return null;
+            Spliterator<List<T>> prefix = new SubListSpliterator<>(list, chunkSize, chunk, mid);
+            chunk = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return endChunk - chunk;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+    }
+
+    private static final class AdaptiveDicedSpliterator<T> implements Spliterator<List<T>> {
+        private final Spliterator<? extends T> underlying;
+        private final int maxSize;
+        private final long targetNanos;
+        private int chunkSize;
+        private long handedOffAt;
+
+        AdaptiveDicedSpliterator(Spliterator<? extends T> underlying, int maxSize, int chunkSize, long targetNanos) {
+            this.underlying = requireNonNull(underlying);
+            this.maxSize = maxSize;
+            this.chunkSize = chunkSize;
+            this.targetNanos = targetNanos;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            requireNonNull(action);
+            if (handedOffAt != 0) {
+                adapt(System.nanoTime() - handedOffAt);
+            }
+            List<T> chunk = new ArrayList<>(chunkSize);
+            for (int i = 0; i < chunkSize && underlying.tryAdvance(chunk::add); i++) {
+            }
+            if (chunk.isEmpty()) return false;
+            handedOffAt = System.nanoTime();
+            action.accept(chunk);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super List<T>> action) {
+            while (tryAdvance(action)) {
+            }
+        }
+
+        @Override
+        public Spliterator<List<T>> trySplit() {
+            return splitThenWrap(underlying, it -> new AdaptiveDicedSpliterator<>(it, maxSize, chunkSize, targetNanos));
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = underlying.estimateSize();
+            return size == Long.MAX_VALUE ? Long.MAX_VALUE : (size + chunkSize - 1) / chunkSize;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.NONNULL;
+        }
+
+        private void adapt(long elapsedNanos) {
+            double scale = elapsedNanos <= 0 ? 2 : Math.max(0.5, Math.min(2, (double) targetNanos / elapsedNanos));
+            chunkSize = (int) Math.max(1, Math.min(maxSize, Math.round(chunkSize * scale)));
+        }
+    }
+
     private static final class FlattenedSpliterator<T> implements Spliterator<T> {
+        private static final int MIN_BLOCK_SPLIT_SIZE = 1 << 10;
+
         private final Spliterator<? extends Stream<? extends T>> blocks;
 
         private Spliterator<? extends T> currentBlock;
@@ -314,11 +1257,23 @@ public final class StreamUtil {
 
         @Override
         public Spliterator<T> trySplit() {
-            return splitThenWrap(blocks, it -> {
-                Spliterator<T> result = new FlattenedSpliterator<>(it, currentBlock);
+            Spliterator<T> result = splitThenWrap(blocks, it -> {
+                Spliterator<T> prefix = new FlattenedSpliterator<>(it, currentBlock);
                 currentBlock = null;
-                return result;
+                return prefix;
             });
+            if (result == null) {
+                if ((currentBlock == null || currentBlock.getExactSizeIfKnown() == 0) && !tryAdvanceBlock()) {
+                    return null;
+                }
+                // This spliterator always reports an unknown size, so it decides by itself when
+                // a block is too small to be worth splitting. Blocks of unknown size are never
+                // split, since they may only give up a single element at a time.
+                if (currentBlock.hasCharacteristics(Spliterator.SUBSIZED) && currentBlock.getExactSizeIfKnown() >= MIN_BLOCK_SPLIT_SIZE) {
+                    result = splitThenWrap(currentBlock, it -> new FlattenedSpliterator<>(Spliterators.emptySpliterator(), it));
+                }
+            }
+            return result;
         }
 
         @Override
@@ -0,0 +1,281 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.TObjectLongMap;
+
+import pw.ollie.dzlib.stream.BiCollection;
+import pw.ollie.dzlib.stream.BiStream;
+import pw.ollie.dzlib.stream.PairCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static pw.ollie.dzlib.stream.BiCollectors.*;
+
+public class BiStreamTest {
+    @Test
+    public void testParallelZip() {
+        List<Integer> left = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+        List<String> right = IntStream.range(0, 7777).mapToObj(Integer::toString).collect(Collectors.toList());
+
+        Map<Integer, String> zipped = BiStream.zip(left.parallelStream(), right.parallelStream()).collect(toMap());
+        Assert.assertEquals(right.size(), zipped.size());
+        zipped.forEach((k, v) -> Assert.assertEquals(Integer.toString(k), v));
+
+        List<String> ordered = BiStream.zip(left.parallelStream(), right.stream())
+                .mapToObj((k, v) -> k + "=" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(right.size(), ordered.size());
+        for (int i = 0; i < ordered.size(); i++) {
+            Assert.assertEquals(i + "=" + i, ordered.get(i));
+        }
+
+        Assert.assertTrue(BiStream.zip(left.parallelStream(), right.parallelStream()).allMatch((k, v) -> Integer.toString(k).equals(v)));
+    }
+
+    @Test
+    public void testReusingEntries() {
+        List<String> values = IntStream.range(0, 100).mapToObj(Integer::toString).collect(Collectors.toList());
+
+        Map<Integer, String> result = BiStream.from(values.stream(), Integer::parseInt, v -> v)
+                .reusingEntries()
+                .filter((k, v) -> k % 2 == 0)
+                .mapValues(v -> v + "!")
+                .skip(5)
+                .limit(10)
+                .collect(toMap());
+        Assert.assertEquals(10, result.size());
+        for (int k = 10; k < 30; k += 2) {
+            Assert.assertEquals(k + "!", result.get(k));
+        }
+
+        List<String> inverted = BiStream.zip(values.stream(), IntStream.range(0, 100).boxed())
+                .reusingEntries()
+                .inverse()
+                .mapToObj((k, v) -> k + "=" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(values.size(), inverted.size());
+        Assert.assertEquals("42=42", inverted.get(42));
+    }
+
+    @Test
+    public void testFusedStages() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+
+        // the sequential collect evaluates the pipeline directly, the parallel one through split spliterators
+        for (boolean parallel : new boolean[]{false, true}) {
+            AtomicInteger extractions = new AtomicInteger();
+            Map<String, Integer> result = BiStream.from(parallel ? values.parallelStream() : values.stream(), v -> {
+                extractions.incrementAndGet();
+                return v;
+            }, v -> v * 2)
+                    .filter((k, v) -> k % 3 == 0)
+                    .filterValues(v -> v % 4 == 0)
+                    .mapKeys(k -> k + 1)
+                    .mapKeys(k -> "k" + k)
+                    .mapValues((k, v) -> v / 2)
+                    .collect(toMap());
+            Assert.assertEquals(values.size(), extractions.get());
+            Assert.assertEquals(1667, result.size());
+            Assert.assertEquals(Integer.valueOf(6), result.get("k7"));
+        }
+
+        List<String> inverted = BiStream.from(values.stream().limit(3), v -> v, v -> "v" + v)
+                .peek((k, v) -> Assert.assertEquals("v" + k, v))
+                .inverse()
+                .mapToObj((v, k) -> v + "=" + k)
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of("v0=0", "v1=1", "v2=2"), inverted);
+    }
+
+    @Test
+    public void testJoin() {
+        List<Integer> values = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        BiStream<Integer, String> small = BiStream.of(3, "a").append(5, "b").append(5, "c").append(2000, "d");
+
+        Map<Integer, String> joined = BiStream.from(values.parallelStream(), v -> v, v -> v * 10)
+                .join(small, (big, s) -> s + big)
+                .collect(toMap((a, b) -> a + "," + b));
+        Assert.assertEquals(2, joined.size());
+        Assert.assertEquals("a30", joined.get(3));
+        Assert.assertTrue(joined.get(5).equals("b50,c50") || joined.get(5).equals("c50,b50"));
+
+        List<String> left = BiStream.of(1, "x").append(2, "y")
+                .leftJoin(BiStream.of(2, "z"), (a, b) -> a + b)
+                .mapToObj((k, v) -> k + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("1xnull", "2yz"), left);
+
+        List<String> merged = BiStream.of(1, "a").append(2, "b").append(2, "c").append(4, "d")
+                .mergeJoin(BiStream.of(2, 1).append(2, 2).append(3, 3).append(4, 4), Comparator.naturalOrder(), (a, b) -> a + b)
+                .mapToObj((k, v) -> k + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("2b1", "2b2", "2c1", "2c2", "4d4"), merged);
+
+        Map<Integer, String> grouped = BiStream.of(1, "a").append(1, "b").append(2, "c")
+                .coGroup(BiStream.of(2, 20).append(3, 30), (l, r) -> l + "" + r)
+                .collect(toMap());
+        Assert.assertEquals("[a, b][]", grouped.get(1));
+        Assert.assertEquals("[c][20]", grouped.get(2));
+        Assert.assertEquals("[][30]", grouped.get(3));
+
+        // the hash tables are not built until a terminal operation runs
+        AtomicInteger reads = new AtomicInteger();
+        BiStream<Integer, String> lazy = BiStream.from(values.stream().peek(v -> reads.incrementAndGet()), v -> v, v -> "v")
+                .join(BiStream.of(3, "a").append(5, "b"), (big, s) -> s + big, BiStream.BuildSide.LEFT)
+                .leftJoin(BiStream.of(5, "c"), (a, b) -> a + b)
+                .coGroup(BiStream.of(7, "d"), (l, r) -> l + "" + r);
+        Assert.assertEquals(0, reads.get());
+        Assert.assertEquals(3, lazy.count());
+        Assert.assertEquals(values.size(), reads.get());
+    }
+
+    @Test
+    public void testExternalSort() {
+        PairCodec<Integer, String> codec = new PairCodec<Integer, String>() {
+            @Override
+            public void write(Integer key, String value, DataOutput out) throws IOException {
+                out.writeInt(key);
+                out.writeUTF(value);
+            }
+
+            @Override
+            public Integer readKey(DataInput in) throws IOException {
+                return in.readInt();
+            }
+
+            @Override
+            public String readValue(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        };
+
+        List<String> sorted = BiStream.from(IntStream.range(0, 5000).boxed(), i -> (i * 7919) % 100, Object::toString)
+                .sortedByKeys(Comparator.naturalOrder(), 100, codec)
+                .mapToObj((k, v) -> k + ":" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(5000, sorted.size());
+        List<String> expected = BiStream.from(IntStream.range(0, 5000).boxed(), i -> (i * 7919) % 100, Object::toString)
+                .sortedByKeys(Comparator.naturalOrder())
+                .mapToObj((k, v) -> k + ":" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(expected, sorted);
+
+        // thousands of tiny runs, which take more than one merge pass
+        List<String> multiPass = BiStream.from(IntStream.range(0, 5000).boxed(), i -> (i * 7919) % 100, Object::toString)
+                .sortedByKeys(Comparator.naturalOrder(), 4, codec)
+                .mapToObj((k, v) -> k + ":" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(expected, multiPass);
+    }
+
+    @Test
+    public void testPrimitiveCollectors() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+
+        TObjectIntMap<Integer> counts = BiStream.from(values.parallelStream(), v -> v % 10, v -> v).collect(countingByKey());
+        Assert.assertEquals(10, counts.size());
+        Assert.assertEquals(1000, counts.get(3));
+
+        TObjectLongMap<Integer> sums = BiStream.from(values.parallelStream(), v -> v % 2, v -> v).collect(summingLong(v -> v));
+        Assert.assertEquals(2500L * 9998, sums.get(0));
+
+        ConcurrentMap<Integer, Integer> concurrent = BiStream.from(values.parallelStream(), v -> v % 100, v -> 1).collect(toConcurrentMap(Integer::sum));
+        Assert.assertEquals(Integer.valueOf(100), concurrent.get(42));
+
+        TLongObjectMap<String> byLong = BiStream.of(1, "a").append(2, "b").collect(toLongObjectMap(k -> k * 10L));
+        Assert.assertEquals("b", byLong.get(20L));
+    }
+
+    @Test
+    public void testAggregateByKey() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+
+        Map<Integer, Integer> maxima = BiStream.from(values.parallelStream(), v -> v % 7, v -> v)
+                .reduceByKey(Math::max)
+                .collect(toMap());
+        Assert.assertEquals(7, maxima.size());
+        Assert.assertEquals(Integer.valueOf(9996), maxima.get(0));
+
+        Map<Integer, String> lengths = BiStream.from(values.parallelStream(), v -> v % 3, Object::toString)
+                .aggregateByKey(0L, (total, v) -> total + v.length(), Long::sum)
+                .mapValues(Object::toString)
+                .collect(toMap());
+        long expected = values.stream().filter(v -> v % 3 == 1).mapToLong(v -> v.toString().length()).sum();
+        Assert.assertEquals(Long.toString(expected), lengths.get(1));
+
+        TObjectLongMap<Boolean> counts = BiStream.from(values.stream(), v -> v < 100, v -> v).countByKey();
+        Assert.assertEquals(100L, counts.get(true));
+    }
+
+    @Test
+    public void testColumnarCollection() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+        BiCollection<Integer, String> collection = values.parallelStream()
+                .collect(BiCollection.toBiCollection(v -> v, Object::toString));
+        Assert.assertEquals(values.size(), collection.size());
+
+        Map<Integer, String> parallel = collection.parallelStream().collect(toMap());
+        Assert.assertEquals(values.size(), parallel.size());
+        Assert.assertEquals("9999", parallel.get(9999));
+
+        List<String> ordered = collection.stream().mapToObj((k, v) -> k + "=" + v).collect(Collectors.toList());
+        Assert.assertEquals("42=42", ordered.get(42));
+
+        AtomicInteger sum = new AtomicInteger();
+        collection.forEach((k, v) -> sum.addAndGet(k));
+        Assert.assertEquals(9999 * 10000 / 2, sum.get());
+
+        BiCollection<Integer, String> built = new BiCollection.Builder<Integer, String>().add(1, "a").add(2, "b").build();
+        Assert.assertEquals(BiCollection.of(1, "a", 2, "b"), built);
+        Assert.assertEquals(BiCollection.of(1, "a", 2, "b").hashCode(), built.hashCode());
+    }
+
+    @Test
+    public void testCollectionLookup() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+        BiCollection<Integer, String> rules = values.stream().collect(BiCollection.toBiCollection(v -> v % 100, v -> v % 3 == 0 ? null : "r" + v));
+        Assert.assertEquals(100, rules.lookupLeft(7).size());
+        Assert.assertEquals("r107", rules.lookupLeft(7).get(1));
+        Assert.assertEquals(List.of(7), rules.lookupRight("r7"));
+        Assert.assertEquals(values.size() / 3 + 1, rules.lookupRight(null).size());
+        Assert.assertTrue(rules.lookupLeft(100).isEmpty());
+        Assert.assertEquals(List.of("b"), BiCollection.of(1, "a", 2, "b").lookupLeft(2));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import gnu.trove.map.TIntObjectMap;
+
+import pw.ollie.dzlib.stream.BiStream;
+import pw.ollie.dzlib.stream.IntObjBiStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class IntObjBiStreamTest {
+    @Test
+    public void runTest() {
+        List<String> values = IntStream.range(0, 10000).mapToObj(Integer::toString).collect(Collectors.toList());
+
+        TIntObjectMap<String> indexed = IntObjBiStream.indexed(values.parallelStream()).toMap();
+        Assert.assertEquals(values.size(), indexed.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(values.get(i), indexed.get(i));
+        }
+
+        List<String> filtered = new ArrayList<>();
+        IntObjBiStream.indexed(values.stream())
+                .filterKeys(i -> i % 1000 == 0)
+                .mapValues((i, v) -> v + "!")
+                .forEachOrdered((i, v) -> filtered.add(v));
+        Assert.assertEquals(10, filtered.size());
+        Assert.assertEquals("1000!", filtered.get(1));
+
+        Assert.assertEquals(3, BiStream.of("a", "abc").mapValuesToInt(String::length).toMap().get("a"));
+    }
+}
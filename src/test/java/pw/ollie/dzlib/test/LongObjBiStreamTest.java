@@ -0,0 +1,82 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import gnu.trove.map.TLongObjectMap;
+
+import pw.ollie.dzlib.stream.BiStream;
+import pw.ollie.dzlib.stream.LongObjBiStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static pw.ollie.dzlib.stream.BiCollectors.*;
+
+public class LongObjBiStreamTest {
+    @Test
+    public void runTest() {
+        List<String> values = LongStream.range(0, 10000).mapToObj(Long::toString).collect(Collectors.toList());
+
+        TLongObjectMap<String> indexed = LongObjBiStream.indexed(values.parallelStream()).toMap();
+        Assert.assertEquals(values.size(), indexed.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(values.get(i), indexed.get(i));
+        }
+
+        // keys beyond the int range survive mapping and filtering
+        List<String> filtered = new ArrayList<>();
+        LongObjBiStream.indexed(values.stream())
+                .mapKeys(k -> k + Integer.MAX_VALUE)
+                .filterKeys(k -> k % 1000 == Integer.MAX_VALUE % 1000)
+                .mapValues((k, v) -> k + "=" + v)
+                .forEachOrdered((k, v) -> filtered.add(v));
+        Assert.assertEquals(10, filtered.size());
+        Assert.assertEquals((1000L + Integer.MAX_VALUE) + "=1000", filtered.get(1));
+
+        TLongObjectMap<String> merged = LongObjBiStream.from(Stream.of("a", "bb", "cc", "ddd"), s -> s.length(), s -> s)
+                .filterValues(s -> !s.equals("a"))
+                .toMap((a, b) -> a + b);
+        Assert.assertEquals(2, merged.size());
+        Assert.assertEquals("bbcc", merged.get(2));
+
+        Map<Long, String> boxed = LongObjBiStream.from(LongStream.of(3, 1, 2), k -> "v" + k).boxed().collect(toMap());
+        Assert.assertEquals("v3", boxed.get(3L));
+        Assert.assertArrayEquals(new long[]{1, 2, 3}, LongObjBiStream.from(LongStream.of(3, 1, 2), k -> "v" + k).sortedByKeys().keys().toArray());
+
+        // mapKeysToLong, from both a generic and an entry stream
+        TLongObjectMap<String> byLong = BiStream.from(Stream.of("x", "yy"), s -> s, s -> s.toUpperCase())
+                .mapKeysToLong(s -> s.length() * 10_000_000_000L)
+                .toMap();
+        Assert.assertEquals("YY", byLong.get(20_000_000_000L));
+        Assert.assertEquals("b", BiStream.of("key", "b").mapKeysToLong(String::length).toMap().get(3L));
+        Assert.assertTrue(BiStream.of("key", "b").mapKeysToLong(String::length).allMatch((k, v) -> k == 3 && v.equals("b")));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import gnu.trove.map.TObjectIntMap;
+
+import pw.ollie.dzlib.stream.BiStream;
+import pw.ollie.dzlib.stream.ObjIntBiStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static pw.ollie.dzlib.stream.BiCollectors.*;
+
+public class ObjIntBiStreamTest {
+    @Test
+    public void runTest() {
+        List<String> words = IntStream.range(0, 10000).mapToObj(i -> "w" + i).collect(Collectors.toList());
+
+        TObjectIntMap<String> lengths = ObjIntBiStream.from(words.parallelStream(), String::length).toMap();
+        Assert.assertEquals(words.size(), lengths.size());
+        Assert.assertEquals(5, lengths.get("w9999"));
+
+        List<String> filtered = new ArrayList<>();
+        ObjIntBiStream.from(words.stream(), w -> w, w -> Integer.parseInt(w.substring(1)))
+                .filterValues(v -> v % 1000 == 0)
+                .mapValues(v -> -v)
+                .mapKeys(String::toUpperCase)
+                .filter((k, v) -> v != 0)
+                .forEachOrdered((k, v) -> filtered.add(k + v));
+        Assert.assertEquals(9, filtered.size());
+        Assert.assertEquals("W1000-1000", filtered.get(0));
+
+        TObjectIntMap<Integer> summed = ObjIntBiStream.from(IntStream.range(0, 100).boxed(), i -> i % 10, i -> i).toMap(Integer::sum);
+        Assert.assertEquals(10, summed.size());
+        Assert.assertEquals(450 + 10 * 3, summed.get(3));
+
+        Map<String, Integer> boxed = ObjIntBiStream.of("a", 1).boxed().collect(toMap());
+        Assert.assertEquals(Integer.valueOf(1), boxed.get("a"));
+        Assert.assertArrayEquals(new int[]{1, 2, 3}, ObjIntBiStream.from(Stream.of("c", "a", "b"), s -> s.charAt(0) - 'a' + 1)
+                .sortedByValues().values().toArray());
+
+        // mapValuesToInt, from both a generic and an entry stream
+        TObjectIntMap<String> fromGeneric = BiStream.from(words.stream().limit(20), w -> w, w -> w + w).mapValuesToInt(String::length).toMap();
+        Assert.assertEquals(6, fromGeneric.get("w19"));
+        Assert.assertEquals(3, BiStream.of("a", "abc").append("b", "de").mapValuesToInt(String::length).toMap().get("a"));
+        Assert.assertEquals(5, BiStream.of("a", "abc").append("b", "de").mapValuesToInt(String::length).values().sum());
+    }
+}
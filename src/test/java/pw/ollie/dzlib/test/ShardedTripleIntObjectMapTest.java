@@ -0,0 +1,128 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import pw.ollie.dzlib.collect.ShardedTripleIntObjectMap;
+import pw.ollie.dzlib.hashing.Int21TripleHashed;
+
+public class ShardedTripleIntObjectMapTest {
+    @Test
+    public void runTest() {
+        ShardedTripleIntObjectMap<String> map = new ShardedTripleIntObjectMap<>();
+        map.addShard("a");
+        map.addShard("b");
+        for (int x = -40; x < 40; x++) {
+            for (int z = -40; z < 40; z++) {
+                map.put(x, 64, z, x + "," + z);
+            }
+        }
+        Assert.assertEquals(6400, map.size());
+
+        // keys in the same region are always on the same shard
+        Assert.assertEquals(map.shardFor(16, 64, 16), map.shardFor(31, 79, 31));
+
+        Assert.assertTrue(map.addShard("c") > 0);
+        Assert.assertEquals(6400, map.size());
+        Assert.assertEquals(0, map.rebalance());
+        Assert.assertNotNull(map.removeShard("a"));
+        Assert.assertEquals(6400, map.size());
+        Assert.assertEquals(6400, map.keys().length);
+        for (int x = -40; x < 40; x++) {
+            for (int z = -40; z < 40; z++) {
+                Assert.assertEquals(x + "," + z, map.get(x, 64, z));
+            }
+        }
+
+        int iterated = 0;
+        for (TLongObjectIterator<String> it = map.iterator(); it.hasNext(); ) {
+            it.advance();
+            Assert.assertNotNull(it.value());
+            iterated++;
+        }
+        Assert.assertEquals(6400, iterated);
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        ShardedTripleIntObjectMap<String> map = new ShardedTripleIntObjectMap<>();
+        map.addShard("a");
+        map.addShard("b");
+        Assert.assertNull(map.putIfAbsent(1, 2, 3, "first"));
+        Assert.assertEquals("first", map.putIfAbsent(1, 2, 3, "second"));
+        Assert.assertEquals("first", map.get(1, 2, 3));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testKeySetView() {
+        ShardedTripleIntObjectMap<String> map = new ShardedTripleIntObjectMap<>();
+        map.addShard("a");
+        map.addShard("b");
+        for (int x = 0; x < 100; x++) {
+            map.put(x * 16, 0, 0, "v" + x);
+        }
+        TLongSet keys = map.keySet();
+        Assert.assertEquals(100, keys.size());
+        Assert.assertTrue(keys.contains(Int21TripleHashed.key(16, 0, 0)));
+
+        // removals write through to the owning shard
+        Assert.assertTrue(keys.remove(Int21TripleHashed.key(16, 0, 0)));
+        Assert.assertFalse(keys.remove(Int21TripleHashed.key(16, 0, 0)));
+        Assert.assertNull(map.get(16, 0, 0));
+        Assert.assertEquals(99, map.size());
+
+        Assert.assertTrue(keys.retainAll(new long[]{Int21TripleHashed.key(0, 0, 0), Int21TripleHashed.key(32, 0, 0)}));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("v2", map.get(32, 0, 0));
+        Assert.assertEquals(new TLongHashSet(new long[]{Int21TripleHashed.key(0, 0, 0), Int21TripleHashed.key(32, 0, 0)}), keys);
+        Assert.assertEquals(keys.hashCode(), new TLongHashSet(keys.toArray()).hashCode());
+
+        keys.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testRegionMigration() {
+        ShardedTripleIntObjectMap<String> map = new ShardedTripleIntObjectMap<>();
+        map.addShard("a");
+        for (int x = 0; x < 64; x++) {
+            map.put(x, 0, 0, "v" + x);
+        }
+        map.addShard("b");
+        map.addShard("c");
+        map.removeShard("a");
+        // every entry of a region has moved together to the region's owner
+        for (int x = 0; x < 64; x++) {
+            Assert.assertEquals("v" + x, map.getShard(map.shardFor(x & ~15, 0, 0)).get(x, 0, 0));
+        }
+        Assert.assertEquals(64, map.size());
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import pw.ollie.dzlib.stream.BiCollectors;
+import pw.ollie.dzlib.stream.BiStream;
+import pw.ollie.dzlib.stream.CountMinSketch;
+import pw.ollie.dzlib.stream.ElementCodec;
+import pw.ollie.dzlib.stream.ExecutionSummary;
+import pw.ollie.dzlib.stream.HyperLogLog;
+import pw.ollie.dzlib.stream.PipelineProbe;
+import pw.ollie.dzlib.stream.SpaceSaving;
+import pw.ollie.dzlib.stream.StageMetrics;
+import pw.ollie.dzlib.stream.StreamCache;
+import pw.ollie.dzlib.stream.StreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class StreamUtilTest {
+    @Test
+    public void testFlatten() {
+        List<List<Integer>> blocks = IntStream.range(0, 20)
+                .mapToObj(i -> IntStream.range(i * 5000, (i + 1) * 5000).boxed().collect(Collectors.toList()))
+                .collect(Collectors.toList());
+
+        long sum = StreamUtil.flatten(blocks.parallelStream().map(List::stream)).mapToLong(i -> i).sum();
+        Assert.assertEquals(99999L * 100000L / 2, sum);
+
+        long count = StreamUtil.flatten(Stream.of(blocks.get(0).parallelStream())).parallel().count();
+        Assert.assertEquals(5000, count);
+
+        List<Integer> limited = StreamUtil.flatten(Stream.iterate(0, i -> i + 1).map(Stream::of)).limit(5).collect(Collectors.toList());
+        Assert.assertEquals(List.of(0, 1, 2, 3, 4), limited);
+    }
+
+    @Test
+    public void testMergeSorted() {
+        List<Stream<Integer>> partitions = IntStream.range(0, 7)
+                .mapToObj(p -> IntStream.range(0, 1000).filter(i -> i % 7 == p || i % 100 == 0).boxed())
+                .collect(Collectors.toList());
+        List<Integer> merged = StreamUtil.mergeSorted(Comparator.<Integer>naturalOrder(), partitions).collect(Collectors.toList());
+        Assert.assertEquals(1000 + 6 * 10, merged.size());
+        for (int i = 1; i < merged.size(); i++) {
+            Assert.assertTrue(merged.get(i - 1) <= merged.get(i));
+        }
+
+        List<String> stable = StreamUtil.mergeSorted(Comparator.comparing(String::length), Stream.of("a", "bb"), Stream.of("c", "dd"), Stream.empty())
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of("a", "c", "bb", "dd"), stable);
+    }
+
+    @Test
+    public void testTopK() {
+        List<Integer> values = IntStream.range(0, 10000).map(i -> (i * 7919) % 10007).boxed().collect(Collectors.toList());
+        List<Integer> expected = values.stream().sorted(Comparator.reverseOrder()).limit(10).collect(Collectors.toList());
+        Assert.assertEquals(expected, StreamUtil.topK(values.parallelStream(), 10, Comparator.reverseOrder()).collect(Collectors.toList()));
+        Assert.assertEquals(expected, values.parallelStream().collect(StreamUtil.topK(10, Comparator.reverseOrder())));
+        Assert.assertEquals(List.of(), StreamUtil.topK(values.stream(), 0, Comparator.naturalOrder()).collect(Collectors.toList()));
+
+        List<String> top = BiStream.from(values.stream(), v -> v, v -> -v)
+                .topKByValues(3, Comparator.naturalOrder())
+                .mapToObj((k, v) -> k + "=" + v)
+                .collect(Collectors.toList());
+        Assert.assertEquals(3, top.size());
+        Assert.assertEquals(expected.get(0) + "=" + -expected.get(0), top.get(0));
+    }
+
+    @Test
+    public void testWindows() {
+        List<List<Integer>> sliding = StreamUtil.sliding(Stream.of(1, 2, 3, 4, 5), 3, 1)
+                .map(ArrayList::new)
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of(List.of(1, 2, 3), List.of(2, 3, 4), List.of(3, 4, 5)), sliding);
+
+        List<List<Integer>> stepped = StreamUtil.sliding(IntStream.range(0, 10).boxed(), 2, 4)
+                .map(ArrayList::new)
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of(List.of(0, 1), List.of(4, 5), List.of(8, 9)), stepped);
+
+        AtomicInteger keyCalls = new AtomicInteger();
+        List<List<String>> byKey = StreamUtil.tumblingByKey(Stream.of("a", "b", "cc", "d"), e -> {
+            keyCalls.incrementAndGet();
+            return e.length();
+        })
+                .map(ArrayList::new)
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of(List.of("a", "b"), List.of("cc"), List.of("d")), byKey);
+        Assert.assertEquals(4, keyCalls.get());
+
+        List<Integer> sessionSizes = StreamUtil.sessions(Stream.of(0L, 10L, 20L, 100L, 105L, 500L), t -> t, Duration.ofMillis(50))
+                .map(List::size)
+                .collect(Collectors.toList());
+        Assert.assertEquals(List.of(3, 2, 1), sessionSizes);
+    }
+
+    @Test
+    public void testPublisherBridge() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+            Flow.Publisher<Integer> publisher = StreamUtil.toPublisher(values.stream(), executor);
+            Assert.assertEquals(values, StreamUtil.fromPublisher(publisher, 16).collect(Collectors.toList()));
+
+            Flow.Publisher<Integer> failing = StreamUtil.toPublisher(Stream.of(1, 2, 0).map(i -> 2 / i), executor);
+            try {
+                StreamUtil.fromPublisher(failing, 1).forEach(i -> {
+                });
+                Assert.fail();
+            } catch (ArithmeticException expected) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMapAsync() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Function<Integer, Integer> slowSquare = i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(i % 3);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            running.decrementAndGet();
+            return i * i;
+        };
+
+        List<Integer> ordered = StreamUtil.mapConcurrently(IntStream.range(0, 200).boxed(), slowSquare, 8, true).collect(Collectors.toList());
+        Assert.assertEquals(IntStream.range(0, 200).map(i -> i * i).boxed().collect(Collectors.toList()), ordered);
+        Assert.assertTrue(maxRunning.get() <= 8);
+
+        Set<Integer> unordered = StreamUtil.mapConcurrently(IntStream.range(0, 200).boxed(), slowSquare, 4, false).collect(Collectors.toSet());
+        Assert.assertEquals(200, unordered.size());
+        Assert.assertTrue(maxRunning.get() <= 8);
+
+        // a mapper failing synchronously cancels the results already in flight
+        List<CompletableFuture<Integer>> started = new ArrayList<>();
+        try {
+            StreamUtil.mapAsync(IntStream.range(0, 10).boxed(), i -> {
+                if (i == 2) {
+                    throw new IllegalArgumentException("bad element");
+                }
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                started.add(future);
+                return future;
+            }, 4, true).forEach(i -> {
+            });
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(2, started.size());
+        Assert.assertTrue(started.stream().allMatch(CompletableFuture::isCancelled));
+    }
+
+    @Test
+    public void testDice() {
+        List<Integer> values = IntStream.range(0, 1003).boxed().collect(Collectors.toList());
+        List<Integer> sizes = StreamUtil.dice(values, 100).parallel().map(List::size).collect(Collectors.toList());
+        Assert.assertEquals(11, sizes.size());
+        Assert.assertEquals(Integer.valueOf(3), sizes.get(10));
+        Assert.assertTrue(sizes.subList(0, 10).stream().allMatch(size -> size == 100));
+
+        List<Integer> adaptive = StreamUtil.dice(values.stream(), 64, Duration.ofSeconds(10))
+                .map(List::size)
+                .collect(Collectors.toList());
+        Assert.assertEquals(1003, adaptive.stream().mapToInt(Integer::intValue).sum());
+        Assert.assertTrue(adaptive.stream().allMatch(size -> size <= 64));
+    }
+
+    @Test
+    public void testSampling() {
+        List<Integer> values = IntStream.range(0, 100000).boxed().collect(Collectors.toList());
+
+        List<Integer> sample = StreamUtil.sample(values.stream(), 100, 42L).collect(Collectors.toList());
+        Assert.assertEquals(100, sample.size());
+        Assert.assertEquals(100, new HashSet<>(sample).size());
+        Assert.assertEquals(sample, StreamUtil.sample(values.stream(), 100, 42L).collect(Collectors.toList()));
+        double mean = sample.stream().mapToInt(Integer::intValue).average().orElse(0);
+        Assert.assertTrue(mean > 35000 && mean < 65000);
+
+        List<Integer> parallel = values.parallelStream().collect(StreamUtil.sampling(100, 7L));
+        Assert.assertEquals(100, new HashSet<>(parallel).size());
+        Assert.assertEquals(List.of(1, 2), StreamUtil.sample(Stream.of(1, 2), 5, 0L).sorted().collect(Collectors.toList()));
+
+        long bernoulli = StreamUtil.sampleBernoulli(values.parallelStream(), 0.1, 3L).count();
+        Assert.assertTrue(bernoulli > 9000 && bernoulli < 11000);
+        List<Integer> ordered = StreamUtil.sampleBernoulli(values.stream(), 0.01, 3L).collect(Collectors.toList());
+        for (int i = 1; i < ordered.size(); i++) {
+            Assert.assertTrue(ordered.get(i - 1) < ordered.get(i));
+        }
+
+        Map<Integer, List<Integer>> strata = values.parallelStream().collect(StreamUtil.stratifiedSampling(v -> v % 3, 10, 5L));
+        Assert.assertEquals(3, strata.size());
+        strata.forEach((k, vs) -> {
+            Assert.assertEquals(10, vs.size());
+            Assert.assertTrue(vs.stream().allMatch(v -> v % 3 == k));
+        });
+
+        long perKey = BiStream.from(values.stream(), v -> v % 4, v -> v).sampleByKey(5, 1L).count();
+        Assert.assertEquals(20, perKey);
+    }
+
+    @Test
+    public void testSketches() throws IOException {
+        HyperLogLog distinct = IntStream.range(0, 1000000).parallel().mapToObj(i -> "user" + (i % 200000))
+                .collect(StreamUtil.distinctCountSketch(14));
+        Assert.assertEquals(200000, distinct.estimate(), 200000 * 0.03);
+        Assert.assertEquals(0, new HyperLogLog(10).estimate());
+        HyperLogLog small = Stream.of(1L, 2L, 3L, 2L).collect(StreamUtil.distinctCountSketch(12));
+        Assert.assertEquals(3, small.estimate());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        distinct.write(new DataOutputStream(bytes));
+        HyperLogLog read = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(distinct.estimate(), read.merge(distinct).estimate());
+
+        CountMinSketch frequencies = IntStream.range(0, 100000).parallel().mapToObj(i -> i % 10 == 0 ? 7 : i)
+                .collect(StreamUtil.frequencySketch(0.001, 0.99));
+        Assert.assertTrue(frequencies.estimate(7) >= 10000);
+        Assert.assertTrue(frequencies.estimate(7) <= 10000 + 100);
+        Assert.assertTrue(frequencies.estimate(8) <= 1 + 100);
+
+        ElementCodec<String> codec = new ElementCodec<String>() {
+            @Override
+            public void write(String element, DataOutput out) throws IOException {
+                out.writeUTF(element);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        };
+        SpaceSaving<String> hitters = IntStream.range(0, 100000).parallel()
+                .mapToObj(i -> i % 4 == 0 ? "hot" : i % 10 == 1 ? "warm" : "cold" + i)
+                .collect(StreamUtil.heavyHitters(50));
+        bytes.reset();
+        hitters.write(new DataOutputStream(bytes), codec);
+        SpaceSaving<String> copy = SpaceSaving.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), codec);
+        Assert.assertEquals(List.of("hot", "warm"), new ArrayList<>(copy.top(2).keySet()));
+        Assert.assertTrue(copy.count("hot") >= 25000);
+        Assert.assertTrue(copy.count("hot") - copy.error("hot") <= 25000);
+
+        SpaceSaving<Integer> keys = BiStream.from(IntStream.range(0, 1000).boxed(), i -> i % 3, i -> i).collect(BiCollectors.heavyHitterKeys(3));
+        Assert.assertEquals(Long.valueOf(334), keys.top(1).get(0));
+    }
+
+    @Test
+    public void testPrefetch() {
+        List<Integer> values = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+        Assert.assertEquals(values, StreamUtil.prefetch(values.stream(), 16).collect(Collectors.toList()));
+
+        try {
+            StreamUtil.prefetch(Stream.of(1, 2, 0).map(i -> 2 / i), 1).forEach(i -> {
+            });
+            Assert.fail();
+        } catch (ArithmeticException expected) {
+        }
+
+        AtomicInteger closed = new AtomicInteger();
+        AtomicInteger read = new AtomicInteger();
+        try (Stream<Integer> prefetched = StreamUtil.prefetch(Stream.iterate(0, i -> i + 1).peek(i -> read.incrementAndGet()).onClose(closed::incrementAndGet), 4)) {
+            Assert.assertEquals(List.of(0, 1, 2), prefetched.limit(3).collect(Collectors.toList()));
+        }
+        Assert.assertEquals(1, closed.get());
+        int readAfterClose = read.get();
+        // the buffer, plus the element the background task is waiting to publish
+        Assert.assertTrue(readAfterClose <= 3 + 4 + 1);
+        Assert.assertEquals(readAfterClose, read.get());
+
+        // closing doesn't wait for a background task which never started
+        try (Stream<Integer> rejected = StreamUtil.prefetch(values.stream(), 4, task -> {
+            throw new RejectedExecutionException();
+        })) {
+            rejected.forEach(i -> {
+            });
+            Assert.fail();
+        } catch (RejectedExecutionException expected) {
+        }
+
+        Map<Integer, String> pairs = BiStream.from(values.stream(), v -> v, Object::toString).prefetch(8).collect(BiCollectors.toMap());
+        Assert.assertEquals("9999", pairs.get(9999));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        AtomicInteger computed = new AtomicInteger();
+        StreamCache<Integer> cache = StreamUtil.cached(() -> IntStream.range(0, 5000).peek(i -> computed.incrementAndGet()).boxed());
+        Assert.assertEquals(List.of(0, 1, 2), cache.get().limit(3).collect(Collectors.toList()));
+        Assert.assertEquals(3, computed.get());
+        Assert.assertEquals(5000, cache.get().count());
+        Assert.assertEquals(4999L * 5000 / 2, cache.get().mapToLong(i -> i).sum());
+        Assert.assertEquals(5000, computed.get());
+        Assert.assertTrue(cache.isComplete());
+
+        cache.invalidate();
+        Assert.assertEquals(5000, cache.get().count());
+        Assert.assertEquals(10000, computed.get());
+
+        ElementCodec<Integer> codec = new ElementCodec<Integer>() {
+            @Override
+            public void write(Integer element, DataOutput out) throws IOException {
+                out.writeInt(element);
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return in.readInt();
+            }
+        };
+        StreamCache<Integer> spilling = StreamUtil.cached(() -> IntStream.range(0, 10000).boxed(), 100, codec);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<List<Integer>>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> spilling.get().collect(Collectors.toList())));
+            }
+            List<Integer> expected = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+            for (Future<List<Integer>> reader : readers) {
+                Assert.assertEquals(expected, reader.get());
+            }
+            Assert.assertEquals(expected, spilling.get().collect(Collectors.toList()));
+        } finally {
+            executor.shutdown();
+            spilling.invalidate();
+        }
+
+        StreamCache<Integer> failing = StreamUtil.cached(() -> Stream.of(1, 0).map(i -> 1 / i));
+        for (int i = 0; i < 2; i++) {
+            try {
+                failing.get().forEach(x -> {
+                });
+                Assert.fail();
+            } catch (ArithmeticException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testPipelineProbe() {
+        List<StageMetrics> reported = new ArrayList<>();
+        PipelineProbe probe = PipelineProbe.create(reported::add, 1);
+        List<Integer> values = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+
+        Stream<Integer> evens = values.stream()
+                .map(probe.mapper("square", (Integer i) -> i * i))
+                .filter(probe.filter("even", (Integer i) -> i % 2 == 0))
+                .flatMap(probe.flatMapper("twice", (Integer i) -> Stream.of(i, i)));
+        long chunks = probe.around("dice", evens, s -> StreamUtil.dice(s, 100)).count();
+        Assert.assertEquals(10, chunks);
+
+        Map<Integer, Integer> collected = BiStream.from(values.stream(), i -> i % 10, i -> i)
+                .filter(probe.filter("small", (Integer k, Integer v) -> v < 500))
+                .collect(probe.collector("collect", BiCollectors.toMap(Integer::sum)));
+        Assert.assertEquals(10, collected.size());
+
+        probe.report();
+        Assert.assertEquals(List.of("square", "even", "twice", "dice", "small", "collect"),
+                reported.stream().map(StageMetrics::stage).collect(Collectors.toList()));
+        StageMetrics even = reported.get(1);
+        Assert.assertEquals(1000, even.elementsIn());
+        Assert.assertEquals(500, even.elementsOut());
+        Assert.assertEquals(1000, reported.get(2).elementsOut());
+        Assert.assertEquals(1000, reported.get(3).elementsIn());
+        Assert.assertEquals(chunks, reported.get(3).elementsOut());
+        Assert.assertEquals(500, reported.get(5).elementsIn());
+        Assert.assertEquals(1, reported.get(5).elementsOut());
+        Assert.assertTrue(reported.get(0).nanos() > 0);
+
+        Function<Integer, Integer> identity = i -> i;
+        Assert.assertSame(identity, PipelineProbe.disabled().mapper("identity", identity));
+        Assert.assertTrue(PipelineProbe.disabled().snapshot().isEmpty());
+    }
+
+    @Test
+    public void testParallelChecked() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutionSummary<String, IOException> mapped = StreamUtil.mapParallel(IntStream.range(0, 100).boxed(), i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(i % 3);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            running.decrementAndGet();
+            return "r" + i;
+        }, 4, false);
+        Assert.assertTrue(mapped.isSuccessful());
+        Assert.assertEquals(IntStream.range(0, 100).mapToObj(i -> "r" + i).collect(Collectors.toList()), mapped.results());
+        Assert.assertTrue(maxRunning.get() <= 4);
+
+        ExecutionSummary<Void, IOException> collected = StreamUtil.forEachParallel(IntStream.range(0, 100).boxed(), i -> {
+            if (i % 10 == 0) {
+                throw new IOException("failed " + i);
+            }
+        }, 4, false);
+        Assert.assertEquals(90, collected.succeeded());
+        Assert.assertEquals(10, collected.failed());
+        try {
+            collected.throwIfFailed();
+            Assert.fail();
+        } catch (IOException expected) {
+            Assert.assertEquals(9, expected.getSuppressed().length);
+        }
+
+        ExecutionSummary<Void, IOException> failFast = StreamUtil.forEachParallel(IntStream.range(0, 10000).boxed(), i -> {
+            if (i == 5) {
+                throw new IOException("failed");
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }, 2, true);
+        Assert.assertEquals(1, failFast.failed());
+        Assert.assertTrue(failFast.succeeded() + failFast.cancelled() < 100);
+        Assert.assertEquals("failed", failFast.failures().get(0).getMessage());
+
+        // the same exception thrown for several elements isn't suppressed by itself
+        IOException shared = new IOException("shared");
+        ExecutionSummary<Void, IOException> repeated = StreamUtil.forEachParallel(IntStream.range(0, 10).boxed(), i -> {
+            throw shared;
+        }, 2, false);
+        Assert.assertEquals(10, repeated.failed());
+        try {
+            repeated.throwIfFailed();
+            Assert.fail();
+        } catch (IOException expected) {
+            Assert.assertSame(shared, expected);
+            Assert.assertEquals(0, expected.getSuppressed().length);
+        }
+    }
+}
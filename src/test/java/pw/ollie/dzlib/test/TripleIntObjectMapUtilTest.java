@@ -0,0 +1,113 @@
+/*
+ * This file is part of dzlib, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2014-2019 Oliver Stanley
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pw.ollie.dzlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import pw.ollie.dzlib.collect.TTripleInt21ObjectHashMap;
+import pw.ollie.dzlib.collect.TripleIntObjectMapUtil;
+import pw.ollie.dzlib.hashing.Int21TripleHashed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TripleIntObjectMapUtilTest {
+    @Test
+    public void testJoin() {
+        TTripleInt21ObjectHashMap<String> left = new TTripleInt21ObjectHashMap<>();
+        TTripleInt21ObjectHashMap<Integer> right = new TTripleInt21ObjectHashMap<>();
+        for (int x = 0; x < 10; x++) {
+            left.put(x, 0, 0, "l" + x);
+        }
+        for (int x = 5; x < 100; x++) {
+            right.put(x, 0, 0, x);
+        }
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            TTripleInt21ObjectHashMap<String> joined = TripleIntObjectMapUtil.join(left, right, (l, r) -> l + "=" + r, parallel);
+            Assert.assertEquals(5, joined.size());
+            for (int x = 5; x < 10; x++) {
+                Assert.assertEquals("l" + x + "=" + x, joined.get(x, 0, 0));
+            }
+
+            // the combiner always receives the left value first, whichever map is smaller
+            TTripleInt21ObjectHashMap<String> swapped = TripleIntObjectMapUtil.join(right, left, (r, l) -> r + "=" + l, parallel);
+            Assert.assertEquals("7=l7", swapped.get(7, 0, 0));
+        }
+    }
+
+    @Test
+    public void testSemiJoin() {
+        TTripleInt21ObjectHashMap<String> left = new TTripleInt21ObjectHashMap<>();
+        TTripleInt21ObjectHashMap<Integer> right = new TTripleInt21ObjectHashMap<>();
+        left.put(1, 2, 3, "a");
+        left.put(4, 5, 6, "b");
+        right.put(4, 5, 6, 0);
+        right.put(7, 8, 9, 0);
+
+        TTripleInt21ObjectHashMap<String> semi = TripleIntObjectMapUtil.semiJoin(left, right);
+        Assert.assertEquals(1, semi.size());
+        Assert.assertEquals("b", semi.get(4, 5, 6));
+        Assert.assertNull(semi.get(7, 8, 9));
+    }
+
+    @Test
+    public void testJoinWithin() {
+        TTripleInt21ObjectHashMap<String> left = new TTripleInt21ObjectHashMap<>();
+        TTripleInt21ObjectHashMap<String> right = new TTripleInt21ObjectHashMap<>();
+        left.put(0, 0, 0, "origin");
+        right.put(1, -1, 1, "near");
+        right.put(2, 0, 0, "far");
+        right.put(3, 3, 3, "farther");
+
+        List<String> pairs = new ArrayList<>();
+        TripleIntObjectMapUtil.joinWithin(left, right, 1, (lk, l, rk, r) -> pairs.add(l + "-" + r));
+        Assert.assertEquals(Collections.singletonList("origin-near"), pairs);
+
+        pairs.clear();
+        TripleIntObjectMapUtil.joinWithin(left, right, 2, (lk, l, rk, r) -> {
+            Assert.assertEquals(Int21TripleHashed.key(0, 0, 0), lk);
+            pairs.add(r);
+        }, true);
+        Collections.sort(pairs);
+        Assert.assertEquals(List.of("far", "near"), pairs);
+    }
+
+    @Test
+    public void testJoinWithinAtRangeEdge() {
+        int max = (1 << 20) - 1;
+        TTripleInt21ObjectHashMap<String> left = new TTripleInt21ObjectHashMap<>();
+        TTripleInt21ObjectHashMap<String> right = new TTripleInt21ObjectHashMap<>();
+        left.put(max, 0, 0, "edge");
+        // max + 1 would wrap to -2^20, so this key must not be matched
+        right.put(-(1 << 20), 0, 0, "opposite");
+        right.put(max - 1, 0, 0, "inside");
+
+        List<String> pairs = new ArrayList<>();
+        TripleIntObjectMapUtil.joinWithin(left, right, 1, (lk, l, rk, r) -> pairs.add(r));
+        Assert.assertEquals(Collections.singletonList("inside"), pairs);
+    }
+}